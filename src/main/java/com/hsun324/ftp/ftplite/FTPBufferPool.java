@@ -0,0 +1,183 @@
+package com.hsun324.ftp.ftplite;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable <code>ByteBuffer</code>s shared by every client.
+ * <p>
+ * Buffers come in size classes that are powers of two from
+ * <code>MINIMUM_SIZE</code> to <code>MAXIMUM_SIZE</code> bytes. A lease is
+ * served from a cache of the calling thread first, then from the shared
+ * pool, and only allocates when both are empty, so a steady stream of
+ * transfers reuses the same few buffers. Requests larger than
+ * <code>MAXIMUM_SIZE</code> are allocated and never pooled.
+ * <p>
+ * A buffer must not be used after it has been released, and must not be
+ * released more than once.
+ * @author hsun324
+ * @version 0.7
+ */
+public final class FTPBufferPool {
+	/**
+	 * The size of the smallest size class.
+	 */
+	public static final int MINIMUM_SIZE = 1 << 12;
+	/**
+	 * The size of the largest size class.
+	 */
+	public static final int MAXIMUM_SIZE = 1 << 20;
+	
+	private static final int MINIMUM_SHIFT = 12;
+	private static final int CLASS_COUNT = 9;
+	
+	/**
+	 * The shared pool of direct buffers, used for channel I/O.
+	 */
+	public static final FTPBufferPool DIRECT = new FTPBufferPool(true, 32);
+	/**
+	 * The shared pool of heap buffers, used where a backing array is needed.
+	 */
+	public static final FTPBufferPool HEAP = new FTPBufferPool(false, 32);
+	
+	private final boolean direct;
+	private final int classCapacity;
+	
+	private final Queue<ByteBuffer>[] classes;
+	private final AtomicInteger[] classSizes;
+	private final ThreadLocal<ByteBuffer[]> threadCache = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[CLASS_COUNT];
+		}
+	};
+	
+	private final AtomicLong allocations = new AtomicLong();
+	
+	/**
+	 * Creates a <code>FTPBufferPool</code>.
+	 * @param direct whether the pool holds direct buffers
+	 * @param classCapacity the maximum number of shared buffers kept in each size class
+	 */
+	public FTPBufferPool(boolean direct, int classCapacity) {
+		if (classCapacity < 0) throw new IllegalArgumentException();
+		this.direct = direct;
+		this.classCapacity = classCapacity;
+		
+		this.classes = newQueueArray(CLASS_COUNT);
+		this.classSizes = new AtomicInteger[CLASS_COUNT];
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			classes[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			classSizes[i] = new AtomicInteger();
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Queue<ByteBuffer>[] newQueueArray(int length) {
+		return new Queue[length];
+	}
+	
+	/**
+	 * Gets whether this pool holds direct buffers.
+	 * @return whether buffers are direct
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+	
+	/**
+	 * Leases a cleared buffer with a capacity of at least <code>size</code> bytes.
+	 * @param size the minimum capacity
+	 * @return the buffer
+	 */
+	public ByteBuffer lease(int size) {
+		if (size < 0) throw new IllegalArgumentException();
+		if (size > MAXIMUM_SIZE) return allocate(size);
+		
+		int index = classOf(size);
+		ByteBuffer[] cache = threadCache.get();
+		ByteBuffer buffer = cache[index];
+		if (buffer != null) {
+			cache[index] = null;
+			return buffer;
+		}
+		
+		buffer = classes[index].poll();
+		if (buffer != null) {
+			classSizes[index].decrementAndGet();
+			return buffer;
+		}
+		return allocate(MINIMUM_SIZE << index);
+	}
+	
+	/**
+	 * Returns a leased buffer to the pool. Buffers that do not belong to
+	 * a size class of this pool are dropped.
+	 * @param buffer the buffer or <code>null</code>
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) return;
+		int capacity = buffer.capacity();
+		if (capacity < MINIMUM_SIZE || capacity > MAXIMUM_SIZE || Integer.bitCount(capacity) != 1) return;
+		
+		buffer.clear();
+		int index = Integer.numberOfTrailingZeros(capacity) - MINIMUM_SHIFT;
+		ByteBuffer[] cache = threadCache.get();
+		if (cache[index] == null) {
+			cache[index] = buffer;
+			return;
+		}
+		
+		if (classSizes[index].incrementAndGet() <= classCapacity) classes[index].add(buffer);
+		else classSizes[index].decrementAndGet();
+	}
+	
+	/**
+	 * Moves the buffers cached by the calling thread to the shared pool.
+	 * Threads that are about to end should call this so that their
+	 * buffers are reused by other threads.
+	 */
+	public void flushThreadCache() {
+		ByteBuffer[] cache = threadCache.get();
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			ByteBuffer buffer = cache[i];
+			if (buffer == null) continue;
+			cache[i] = null;
+			if (classSizes[i].incrementAndGet() <= classCapacity) classes[i].add(buffer);
+			else classSizes[i].decrementAndGet();
+		}
+		threadCache.remove();
+	}
+	
+	/**
+	 * Moves the buffers cached by the calling thread in both shared
+	 * pools to their shared queues.
+	 * @see #flushThreadCache()
+	 */
+	public static void flushThreadCaches() {
+		DIRECT.flushThreadCache();
+		HEAP.flushThreadCache();
+	}
+	
+	/**
+	 * Gets the number of buffers this pool has allocated because no pooled
+	 * buffer was available.
+	 * @return the allocation count
+	 */
+	public long getAllocationCount() {
+		return allocations.get();
+	}
+	
+	private ByteBuffer allocate(int size) {
+		allocations.incrementAndGet();
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+	
+	private static int classOf(int size) {
+		if (size <= MINIMUM_SIZE) return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MINIMUM_SHIFT;
+	}
+}
@@ -94,6 +94,19 @@ public class FTPFile {
 		this.source = data;
 	}
 	
+	/**
+	 * Creates a <code>FTPFile</code> with the contents of the provided
+	 * file and its own copy of the source bytes.
+	 * @param file the file to copy
+	 */
+	FTPFile(FTPFile file) {
+		this.filetype = file.filetype;
+		this.text = file.text;
+		this.encoding = file.encoding;
+		
+		this.source = file.source.clone();
+	}
+	
 	/**
 	 * Gets this file's file type.
 	 * @return the file type
@@ -0,0 +1,131 @@
+package com.hsun324.ftp.ftplite;
+
+import java.util.Date;
+
+import com.hsun324.ftp.ftplite.FTPObject.FTPObjectType;
+
+/**
+ * The metadata of a remote file or directory, as reported by MLST or
+ * by SIZE and MDTM.
+ * <p>
+ * A status may also record that the server reported no such file. The
+ * size is <code>-1</code> and the modification time <code>null</code>
+ * when the server did not report them.
+ * @author hsun324
+ * @version 0.7
+ */
+public final class FTPFileStatus {
+	private final FTPObject file;
+	private final boolean exists;
+	private final FTPObjectType type;
+	private final long size;
+	private final Date modifiedTime;
+	
+	/**
+	 * Creates a <code>FTPFileStatus</code> of an existing file.
+	 * @param file the file
+	 * @param type the type of the file
+	 * @param size the size or <code>-1</code> if it is unknown
+	 * @param modifiedTime the modification time or <code>null</code> if it is unknown
+	 */
+	public FTPFileStatus(FTPObject file, FTPObjectType type, long size, Date modifiedTime) {
+		this(file, true, type, size, modifiedTime);
+	}
+	
+	private FTPFileStatus(FTPObject file, boolean exists, FTPObjectType type, long size, Date modifiedTime) {
+		if (file == null || type == null) throw new IllegalArgumentException();
+		this.file = file;
+		this.exists = exists;
+		this.type = type;
+		this.size = size;
+		this.modifiedTime = modifiedTime == null ? null : new Date(modifiedTime.getTime());
+	}
+	
+	/**
+	 * Creates a <code>FTPFileStatus</code> recording that a file does not exist.
+	 * @param file the file
+	 * @return the status
+	 */
+	public static FTPFileStatus missing(FTPObject file) {
+		return new FTPFileStatus(file, false, FTPObjectType.UNKNOWN, -1, null);
+	}
+	
+	/**
+	 * Creates a <code>FTPFileStatus</code> from the facts of a MLST reply,
+	 * like <code>type=file;size=1024;modify=20120101120000;</code>. Facts
+	 * that are not known are ignored.
+	 * @param file the file the facts describe
+	 * @param facts the facts
+	 * @return the status
+	 */
+	public static FTPFileStatus parseFacts(FTPObject file, String facts) {
+		FTPObjectType type = FTPObjectType.UNKNOWN;
+		long size = -1;
+		Date modified = null;
+		
+		for (String fact : facts.split(";")) {
+			int index = fact.indexOf('=');
+			if (index < 0) continue;
+			String name = fact.substring(0, index);
+			String value = fact.substring(index + 1);
+			
+			if (name.equalsIgnoreCase("type")) {
+				if (value.equalsIgnoreCase("file")) type = FTPObjectType.FILE;
+				else if (value.equalsIgnoreCase("dir") || value.equalsIgnoreCase("cdir") || value.equalsIgnoreCase("pdir")) type = FTPObjectType.DIRECTORY;
+			} else if (name.equalsIgnoreCase("size")) {
+				try {
+					size = Long.parseLong(value);
+				} catch (NumberFormatException e) { }
+			} else if (name.equalsIgnoreCase("modify")) {
+				modified = FTPObject.getDate(value);
+			}
+		}
+		return new FTPFileStatus(file, type, size, modified);
+	}
+	
+	/**
+	 * Gets the file this status describes.
+	 * @return the file
+	 */
+	public FTPObject getFile() {
+		return file;
+	}
+	
+	/**
+	 * Gets whether the file exists.
+	 * @return whether the file exists
+	 */
+	public boolean exists() {
+		return exists;
+	}
+	
+	/**
+	 * Gets the type of the file.
+	 * @return the type, which is {@link FTPObjectType#UNKNOWN} if it was not reported
+	 */
+	public FTPObjectType getType() {
+		return type;
+	}
+	
+	/**
+	 * Gets the size of the file in bytes.
+	 * @return the size or <code>-1</code> if it is unknown
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	/**
+	 * Gets the time the file was last modified.
+	 * @return the time or <code>null</code> if it is unknown
+	 */
+	public Date getModifiedTime() {
+		return modifiedTime == null ? null : new Date(modifiedTime.getTime());
+	}
+	
+	@Override
+	public String toString() {
+		if (!exists) return file + " (missing)";
+		return file + " " + type + " " + size + " " + (modifiedTime == null ? "-" : modifiedTime.getTime());
+	}
+}
@@ -1,7 +1,21 @@
 package com.hsun324.ftp.ftplite;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import com.hsun324.ftp.ftplite.FTPLog.Level;
 import com.hsun324.ftp.ftplite.client.FTPClient;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
 import com.hsun324.ftp.ftplite.commands.Command;
@@ -12,11 +26,27 @@ import com.hsun324.ftp.ftplite.commands.Command;
  * command execution.
  * <p>
  * This class is synchronized across threads. Methods in this class that retrieve
- * the result will block until the result is set.
+ * the result will block until the result is set. Blocking is done with
+ * <code>java.util.concurrent</code> primitives rather than monitors so that
+ * virtual threads waiting on a result do not pin their carrier thread.
+ * <p>
+ * Callers that must not block can use the {@link CompletionStage} returned
+ * by <code>asStage</code> to chain transformations and callbacks, and
+ * <code>allOf</code> to combine several futures.
  * @author hsun324
  * @version 0.7
  */
 public final class FTPFuture {
+	/**
+	 * Passes a result through unchanged, used to move a completion to another executor.
+	 */
+	private static final Function<FTPResult, FTPResult> IDENTITY = new Function<FTPResult, FTPResult>() {
+		@Override
+		public FTPResult apply(FTPResult result) {
+			return result;
+		}
+	};
+	
 	/**
 	 * Creates a <code>FTPFuture</code> 
 	 * @param client
@@ -29,9 +59,26 @@ public final class FTPFuture {
 	}
 	
 	/**
-	 * Result set semaphore.
+	 * The completion that holds this future's command's result.
+	 */
+	protected final CompletableFuture<FTPResult> completion = new CompletableFuture<FTPResult>();
+	/**
+	 * Whether this future failed because its deadline passed.
+	 */
+	protected volatile boolean timedOut = false;
+	/**
+	 * Whether this future's command was cancelled.
+	 */
+	protected volatile boolean cancelled = false;
+	/**
+	 * Whether this future's command has been executed. Guarded by
+	 * the execution lock.
+	 */
+	protected boolean executed = false;
+	/**
+	 * Execution lock.
 	 */
-	protected final Object resultSync = new Object();
+	protected final Lock executionLock = new ReentrantLock();
 	
 	/**
 	 * This future's client.
@@ -45,19 +92,78 @@ public final class FTPFuture {
 	 * This future's command.
 	 */
 	protected final Command command;
+	
 	/**
-	 * This future's command's result.
+	 * Executes the command represented by this future.
+	 * @throws IOException
 	 */
-	protected FTPResult result;
+	public void execute() throws IOException {
+		executionLock.lock();
+		try {
+			if (cancelled) {
+				if (!isResultSet()) setResult(FTPResult.FAILED);
+				return;
+			}
+			executed = true;
+			if (command.isValidContext(inter)) {
+				FTPResult elided = command.executeOrElide(inter);
+				if (elided != null) setResult(elided);
+			} else setResult(FTPResult.FAILED);
+		} finally {
+			executionLock.unlock();
+		}
+	}
 	
 	/**
-	 * Executes the command represented by this future.
+	 * Executes the command represented by this future as part of
+	 * a pipeline.
 	 * @throws IOException
+	 * @see Command#executePipelined(FTPInterface)
 	 */
-	public synchronized void execute() throws IOException {
-		if (command.isValidContext(inter)) {
-			command.execute(inter);
-		} else result = FTPResult.FAILED;
+	public void executePipelined() throws IOException {
+		executionLock.lock();
+		try {
+			if (cancelled) {
+				if (!isResultSet()) setResult(FTPResult.FAILED);
+				return;
+			}
+			executed = true;
+			if (command.isValidContext(inter)) {
+				command.executePipelined(inter);
+			} else setResult(FTPResult.FAILED);
+		} finally {
+			executionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets whether the command represented by this future may be
+	 * pipelined.
+	 * @return whether the command is pipelinable
+	 * @see Command#isPipelinable()
+	 */
+	public boolean isPipelinable() {
+		return command != null && command.isPipelinable();
+	}
+	
+	/**
+	 * Gets whether the command represented by this future uses the
+	 * data channel.
+	 * @return whether the command uses the data channel
+	 * @see Command#usesDataChannel()
+	 */
+	public boolean usesDataChannel() {
+		return command != null && command.usesDataChannel();
+	}
+	
+	/**
+	 * Gets whether the command represented by this future still waits for
+	 * a reply from the server.
+	 * @return whether the command waits for a reply
+	 * @see Command#isAwaitingReply()
+	 */
+	public boolean isAwaitingReply() {
+		return !isResultSet() && (command == null || command.isAwaitingReply());
 	}
 	
 	/**
@@ -67,13 +173,11 @@ public final class FTPFuture {
 	 */
 	public FTPResult getResult() throws IOException {
 		waitUntilResult();
-		return result;
+		return completion.getNow(null);
 	}
 	
 	public boolean completed() {
-		synchronized (resultSync) {
-			return result != null;
-		}
+		return completion.isDone();
 	}
 	
 	/**
@@ -81,15 +185,34 @@ public final class FTPFuture {
 	 * @throws IOException
 	 */
 	public void waitUntilResult() throws IOException {
-		synchronized (resultSync) {
-			try {
-				while (result == null)
-					resultSync.wait();
-			} catch (InterruptedException e) {
-				throw new IOException(e);
-			}
+		try {
+			completion.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
 		}
 	}
+	/**
+	 * Waits for the result to be set for at most the provided time.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return whether the result is set
+	 * @throws IOException
+	 */
+	public boolean waitUntilResult(long timeout, TimeUnit unit) throws IOException {
+		try {
+			completion.get(timeout, unit);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+	
 	/**
 	 * Sets the result for this future.
 	 * <p>
@@ -99,11 +222,24 @@ public final class FTPFuture {
 	 */
 	public void setResult(FTPResult result) {
 		if (result == null) return;
-		synchronized (resultSync) {
-			if (this.result != null) throw new IllegalStateException();
-			this.result = result;
-			resultSync.notifyAll();
-		}
+		if (!completion.complete(result)) throw new IllegalStateException();
+	}
+
+	/**
+	 * Runs the provided action once the result is set, on the thread that
+	 * sets it, or right away if the result is already set. The action must
+	 * be short and must not block, since it usually runs on the thread that
+	 * handles the client's responses.
+	 * @param action the action to run
+	 */
+	public void whenComplete(final Runnable action) {
+		if (action == null) throw new IllegalArgumentException();
+		completion.whenComplete(new BiConsumer<FTPResult, Throwable>() {
+			@Override
+			public void accept(FTPResult result, Throwable thrown) {
+				action.run();
+			}
+		});
 	}
 
 	/**
@@ -111,7 +247,146 @@ public final class FTPFuture {
 	 * @return whether the result is set
 	 */
 	public boolean isResultSet() {
-		return result != null;
+		return completion.isDone();
+	}
+	
+	/**
+	 * Sets a deadline for this future's command, after which it fails.
+	 * <p>
+	 * If the command is still queued when the deadline passes, it is removed
+	 * from the queue. If it has already been sent, later replies could no
+	 * longer be matched to their commands, so the client's connection is
+	 * closed, failing every other queued command as well. A future without a
+	 * command of its own only fails.
+	 * @param timeout the time from now until the deadline
+	 * @param unit the unit of the timeout
+	 * @return this future
+	 */
+	public FTPFuture setDeadline(long timeout, TimeUnit unit) {
+		if (timeout <= 0) throw new IllegalArgumentException();
+		if (isResultSet()) return this;
+		
+		final ScheduledFuture<?> check = FTPWatchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+				expire();
+			}
+		}, timeout, unit);
+		completion.whenComplete(new BiConsumer<FTPResult, Throwable>() {
+			@Override
+			public void accept(FTPResult result, Throwable thrown) {
+				check.cancel(false);
+			}
+		});
+		return this;
+	}
+	
+	/**
+	 * Cancels this future's command.
+	 * <p>
+	 * A command that is still queued is removed from the queue. A command
+	 * that is transferring data is aborted with ABOR and its data connection
+	 * is closed, leaving the control connection usable for the commands
+	 * queued after it. Either way the future fails.
+	 * @return whether the command was cancelled, which is <code>false</code> if it
+	 * already completed or cannot be aborted
+	 * @throws IOException if the abort could not be sent
+	 * @see Command#abort(FTPInterface)
+	 */
+	public boolean cancel() throws IOException {
+		if (isResultSet()) return false;
+		
+		executionLock.lock();
+		try {
+			if (!executed) {
+				cancelled = true;
+				if (inter != null) inter.removeQueuedCommand(this);
+				completion.complete(FTPResult.FAILED);
+				return true;
+			}
+		} finally {
+			executionLock.unlock();
+		}
+		
+		if (!command.abort(inter)) return false;
+		cancelled = true;
+		return true;
+	}
+	
+	/**
+	 * Gets whether this future's command was cancelled.
+	 * @return whether the command was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Gets whether this future failed because its deadline passed.
+	 * @return whether the deadline passed
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	private void expire() {
+		if (isResultSet()) return;
+		timedOut = true;
+		FTPLog.log(Level.WARN, "command deadline passed");
+		
+		if (command != null && (inter == null || !inter.removeQueuedCommand(this))) {
+			try {
+				if (client != null) client.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+		completion.complete(FTPResult.FAILED);
+	}
+	
+	/**
+	 * Gets a <code>CompletionStage</code> that completes with this future's
+	 * result. Dependent actions run on the client's callback executor, see
+	 * {@link FTPClient#setCallbackExecutor(Executor)}.
+	 * @return the completion stage
+	 */
+	public CompletionStage<FTPResult> asStage() {
+		return asStage(client == null ? null : client.getCallbackExecutor());
+	}
+	
+	/**
+	 * Gets a <code>CompletionStage</code> that completes with this future's
+	 * result on the provided executor, so that dependent actions never run
+	 * on the thread that handles the client's responses.
+	 * <p>
+	 * If the executor is <code>null</code>, the stage completes on the default
+	 * asynchronous executor of <code>CompletableFuture</code>.
+	 * @param executor the executor to complete the stage on or <code>null</code>
+	 * @return the completion stage
+	 */
+	public CompletionStage<FTPResult> asStage(Executor executor) {
+		if (executor == null) return completion.thenApplyAsync(IDENTITY);
+		return completion.thenApplyAsync(IDENTITY, executor);
+	}
+	
+	/**
+	 * Gets a <code>CompletionStage</code> that completes with the results of
+	 * every provided future, in order, once all of them have completed.
+	 * @param futures the futures to combine
+	 * @return the combined completion stage
+	 */
+	public static CompletionStage<List<FTPResult>> allOf(FTPFuture... futures) {
+		final List<CompletableFuture<FTPResult>> stages = new ArrayList<CompletableFuture<FTPResult>>(futures.length);
+		for (FTPFuture future : futures) stages.add(future.asStage().toCompletableFuture());
+		
+		return CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()])).thenApply(new Function<Void, List<FTPResult>>() {
+			@Override
+			public List<FTPResult> apply(Void ignored) {
+				List<FTPResult> results = new ArrayList<FTPResult>(stages.size());
+				for (CompletableFuture<FTPResult> stage : stages) results.add(stage.join());
+				return results;
+			}
+		});
 	}
 
 	public void quitExecution() {
@@ -121,5 +396,9 @@ public final class FTPFuture {
 	public boolean pushResponse(FTPResponse response) {
 		return command.processResponse(inter, response);
 	}
+	
+	public boolean pushCompletion() {
+		return command.processCompletion(inter);
+	}
 
 }
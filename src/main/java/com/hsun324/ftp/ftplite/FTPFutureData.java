@@ -1,6 +1,12 @@
 package com.hsun324.ftp.ftplite;
 
 import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * This class wraps a {@link FTPFuture} and provides a abstraction upon
@@ -9,7 +15,7 @@ import java.io.IOException;
  * <p>
  * This class is synchronized across threads by means of <code>FTPFuture</code>
  * synchronization. Methods that retrieve the result will block until the result
- * has been set.
+ * has been set. The data is formed only once, however many threads ask for it.
  * @author hsun324
  *
  * @param <T>
@@ -33,7 +39,7 @@ public abstract class FTPFutureData<T> {
 	 * Calls the <code>execute()</code> method on the backing future.
 	 * @throws IOException
 	 */
-	public final synchronized void execute() throws IOException {
+	public final void execute() throws IOException {
 		future.execute();
 	}
 	/**
@@ -62,14 +68,64 @@ public abstract class FTPFutureData<T> {
 	}
 
 	/**
-	 * Flag indicating whether the data is set.
+	 * Calls the <code>cancel()</code> method on the backing future.
+	 * @return whether the command was cancelled
+	 * @throws IOException
+	 */
+	public final boolean cancel() throws IOException {
+		return future.cancel();
+	}
+	
+	/**
+	 * Gets a <code>CompletionStage</code> that completes with the transformed
+	 * data once the backing future has completed. The stage completes
+	 * exceptionally if the data cannot be formed.
+	 * @return the completion stage
+	 * @see FTPFuture#asStage()
 	 */
-	protected boolean set = false;
+	public final CompletionStage<T> asStage() {
+		return transform(future.asStage());
+	}
+	
+	/**
+	 * Gets a <code>CompletionStage</code> that completes with the transformed
+	 * data on the provided executor once the backing future has completed.
+	 * @param executor the executor to complete the stage on or <code>null</code>
+	 * @return the completion stage
+	 * @see FTPFuture#asStage(Executor)
+	 */
+	public final CompletionStage<T> asStage(Executor executor) {
+		return transform(future.asStage(executor));
+	}
+	
+	private CompletionStage<T> transform(CompletionStage<FTPResult> stage) {
+		return stage.thenApply(new Function<FTPResult, T>() {
+			@Override
+			public T apply(FTPResult result) {
+				try {
+					return getData();
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Flag indicating whether the data is set. It is written after
+	 * <code>data</code>, so a thread that sees it set also sees the data.
+	 */
+	protected volatile boolean set = false;
 	
 	/**
 	 * Processed data cache field.
 	 */
 	protected T data = null;
+	
+	/**
+	 * Lock held while the data is formed.
+	 */
+	private final Lock dataLock = new ReentrantLock();
 	/**
 	 * Gets the data from the result by transforming it using the
 	 * <code>formData(byte[])</code> method.
@@ -82,20 +138,27 @@ public abstract class FTPFutureData<T> {
 	public final T getData() throws IOException {
 		if (set) return data;
 		
-		T ret = null;
 		FTPResult result = future.getResult();
-		if (result.success && result.data != null) {
-			try {
-				ret = formData(result.data);
-			} catch (IOException e) {
-				throw e;
-			} catch (Exception e) {
-				throw new IOException(e);
+		dataLock.lock();
+		try {
+			if (set) return data;
+			
+			T ret = null;
+			if (result.success && result.data != null) {
+				try {
+					ret = formData(result.data);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
 			}
+			data = ret;
+			set = true;
+			return ret;
+		} finally {
+			dataLock.unlock();
 		}
-		set = true;
-		data = ret;
-		return data;
 	}
 	
 	/**
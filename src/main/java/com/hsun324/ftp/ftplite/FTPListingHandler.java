@@ -0,0 +1,17 @@
+package com.hsun324.ftp.ftplite;
+
+/**
+ * A callback that receives the entries of a directory listing one at a
+ * time, as they are parsed.
+ * @author hsun324
+ * @version 0.7
+ * @see FTPListingParser
+ */
+public interface FTPListingHandler {
+	/**
+	 * Handles an entry of the listing. Entries are handled in the order
+	 * the server sent them.
+	 * @param entry the entry
+	 */
+	public void handleEntry(FTPObject entry);
+}
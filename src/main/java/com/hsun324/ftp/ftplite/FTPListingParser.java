@@ -0,0 +1,262 @@
+package com.hsun324.ftp.ftplite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+
+/**
+ * A parser for LIST and MLSD directory listings.
+ * <p>
+ * As a <code>WritableByteChannel</code>, the parser takes the listing as it
+ * arrives from the data channel and hands each entry to a
+ * {@link FTPListingHandler} as soon as its line is complete, so a listing
+ * never has to be held in memory. Only the bytes of an unfinished line are
+ * kept between writes. The last line is parsed when the parser is closed.
+ * <p>
+ * A listing that is already buffered can be parsed with <code>parse</code>.
+ * Listings of at least <code>PARALLEL_THRESHOLD</code> bytes are split at
+ * line boundaries and the parts are parsed in parallel on the common
+ * <code>ForkJoinPool</code>.
+ * <p>
+ * Lines are decoded one at a time and end at a carriage return or a line
+ * feed. Empty lines and lines that are not entries are skipped.
+ * @author hsun324
+ * @version 0.7
+ */
+public final class FTPListingParser implements WritableByteChannel {
+	/**
+	 * The size from which buffered listings are parsed in parallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 20;
+	
+	/**
+	 * The size of the parts a listing parsed in parallel is split into.
+	 */
+	private static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+	
+	private static final FTPObject[] FTPOBJECT_PROTOTYPE_ARRAY = new FTPObject[0];
+	
+	private final FTPObject directory;
+	private final Charset charset;
+	private final FTPListingHandler handler;
+	
+	/**
+	 * The bytes of the current unfinished line.
+	 */
+	private byte[] line = new byte[256];
+	private int lineLength = 0;
+	
+	/**
+	 * The buffer that bytes of direct buffers are copied into to be scanned.
+	 */
+	private byte[] scratch = null;
+	
+	private long entries = 0;
+	private boolean open = true;
+	
+	/**
+	 * Creates a <code>FTPListingParser</code>.
+	 * @param directory the directory entries are relative to
+	 * @param charset the charset of the listing
+	 * @param handler the handler that receives the entries
+	 */
+	public FTPListingParser(FTPObject directory, Charset charset, FTPListingHandler handler) {
+		if (directory == null || charset == null || handler == null) throw new IllegalArgumentException();
+		this.directory = directory;
+		this.charset = charset;
+		this.handler = handler;
+	}
+	
+	/**
+	 * Gets the charset listings of the provided client are decoded with,
+	 * which is UTF-8 if the server announced it and ISO-8859-1, which
+	 * keeps every byte, otherwise.
+	 * @param inter the client state
+	 * @return the charset
+	 */
+	public static Charset getCharset(FTPInterface inter) {
+		return Charset.forName(inter.isFeatureSupported(Feature.UTF8) ? "UTF-8" : "ISO-8859-1");
+	}
+	
+	/**
+	 * Parses a buffered listing, in parallel if it is at least
+	 * <code>PARALLEL_THRESHOLD</code> bytes long.
+	 * @param directory the directory entries are relative to
+	 * @param data the listing
+	 * @param charset the charset of the listing
+	 * @return the entries in the order of the listing
+	 */
+	public static FTPObject[] parse(FTPObject directory, byte[] data, Charset charset) {
+		return parse(directory, data, charset, PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Parses a buffered listing, in parallel if it is at least
+	 * <code>parallelThreshold</code> bytes long.
+	 * @param directory the directory entries are relative to
+	 * @param data the listing
+	 * @param charset the charset of the listing
+	 * @param parallelThreshold the size from which the listing is parsed in
+	 * parallel, or <code>Integer.MAX_VALUE</code> to always parse it sequentially
+	 * @return the entries in the order of the listing
+	 */
+	public static FTPObject[] parse(FTPObject directory, byte[] data, Charset charset, int parallelThreshold) {
+		if (directory == null || data == null || charset == null) throw new IllegalArgumentException();
+		List<FTPObject> list;
+		if (data.length >= parallelThreshold) list = ForkJoinPool.commonPool().invoke(new ParseTask(directory, data, charset, 0, data.length));
+		else {
+			list = new ArrayList<FTPObject>();
+			parseLines(directory, data, charset, 0, data.length, list);
+		}
+		return list.toArray(FTPOBJECT_PROTOTYPE_ARRAY);
+	}
+	
+	/**
+	 * Gets the number of entries handed to the handler so far.
+	 * @return the entry count
+	 */
+	public long getEntryCount() {
+		return entries;
+	}
+	
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		
+		int length = source.remaining();
+		byte[] bytes;
+		int offset;
+		if (source.hasArray()) {
+			bytes = source.array();
+			offset = source.arrayOffset() + source.position();
+			source.position(source.limit());
+		} else {
+			if (scratch == null || scratch.length < length) scratch = new byte[Math.max(length, 1 << 12)];
+			source.get(scratch, 0, length);
+			bytes = scratch;
+			offset = 0;
+		}
+		
+		int end = offset + length;
+		int start = offset;
+		for (int i = offset; i < end; i++) {
+			byte b = bytes[i];
+			if (b != '\r' && b != '\n') continue;
+			
+			if (lineLength > 0) {
+				appendLine(bytes, start, i - start);
+				handleLine(line, 0, lineLength);
+				lineLength = 0;
+			} else handleLine(bytes, start, i - start);
+			start = i + 1;
+		}
+		appendLine(bytes, start, end - start);
+		return length;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+	
+	/**
+	 * Parses the last line if it was not terminated and closes the parser.
+	 */
+	@Override
+	public void close() {
+		if (!open) return;
+		open = false;
+		if (lineLength > 0) handleLine(line, 0, lineLength);
+		lineLength = 0;
+	}
+	
+	private void appendLine(byte[] bytes, int offset, int length) {
+		if (length == 0) return;
+		if (lineLength + length > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+		System.arraycopy(bytes, offset, line, lineLength, length);
+		lineLength += length;
+	}
+	
+	private void handleLine(byte[] bytes, int offset, int length) {
+		if (length == 0) return;
+		FTPObject entry = FTPObject.parseEntity(directory, new String(bytes, offset, length, charset));
+		if (entry == null) return;
+		entries++;
+		handler.handleEntry(entry);
+	}
+	
+	/**
+	 * Parses the lines in a range of a buffered listing.
+	 * @param directory the directory entries are relative to
+	 * @param data the listing
+	 * @param charset the charset of the listing
+	 * @param from the start of the range, which is the start of a line
+	 * @param to the end of the range, which is the end of a line
+	 * @param list the list to add the entries to
+	 */
+	private static void parseLines(FTPObject directory, byte[] data, Charset charset, int from, int to, List<FTPObject> list) {
+		int start = from;
+		for (int i = from; i <= to; i++) {
+			if (i < to && data[i] != '\r' && data[i] != '\n') continue;
+			if (i > start) {
+				FTPObject entry = FTPObject.parseEntity(directory, new String(data, start, i - start, charset));
+				if (entry != null) list.add(entry);
+			}
+			start = i + 1;
+		}
+	}
+	
+	/**
+	 * A task that parses a range of a buffered listing, splitting it in two
+	 * at a line boundary while it is larger than <code>PARALLEL_CHUNK_SIZE</code>.
+	 */
+	private static final class ParseTask extends RecursiveTask<List<FTPObject>> {
+		private static final long serialVersionUID = 1L;
+		
+		private final FTPObject directory;
+		private final byte[] data;
+		private final Charset charset;
+		private final int from;
+		private final int to;
+		
+		public ParseTask(FTPObject directory, byte[] data, Charset charset, int from, int to) {
+			this.directory = directory;
+			this.data = data;
+			this.charset = charset;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected List<FTPObject> compute() {
+			if (to - from > PARALLEL_CHUNK_SIZE) {
+				int middle = from + (to - from) / 2;
+				while (middle < to && data[middle] != '\n' && data[middle] != '\r') middle++;
+				
+				if (middle < to) {
+					ParseTask left = new ParseTask(directory, data, charset, from, middle);
+					ParseTask right = new ParseTask(directory, data, charset, middle, to);
+					left.fork();
+					List<FTPObject> list = right.compute();
+					List<FTPObject> head = left.join();
+					head.addAll(list);
+					return head;
+				}
+			}
+			
+			List<FTPObject> list = new ArrayList<FTPObject>();
+			parseLines(directory, data, charset, from, to, list);
+			return list;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.hsun324.ftp.ftplite;
+
+import java.io.PrintStream;
+
+/**
+ * A small logging facade used by the library in place of writing
+ * directly to <code>System.out</code>.
+ * <p>
+ * Messages below the current level are dropped. Callers on hot paths
+ * should either guard with <code>isEnabled</code> or pass a {@link Message},
+ * which is only formatted when the level is enabled. Output goes to a
+ * pluggable {@link Sink}, which by default writes to <code>System.err</code>.
+ * @author hsun324
+ * @version 0.7
+ */
+public final class FTPLog {
+	private FTPLog() {}
+	
+	/**
+	 * The levels messages can be logged at, from most to least verbose.
+	 */
+	public static enum Level {
+		TRACE,
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR,
+		/**
+		 * Disables all logging when used as the log level.
+		 */
+		OFF;
+	}
+	
+	/**
+	 * A message that is only built if it will be logged.
+	 */
+	public static interface Message {
+		/**
+		 * Builds the message.
+		 * @return the message
+		 */
+		public String get();
+	}
+	
+	/**
+	 * A destination for log messages.
+	 */
+	public static interface Sink {
+		/**
+		 * Writes a message.
+		 * @param level the level of the message
+		 * @param message the message
+		 * @param thrown the associated exception or <code>null</code>
+		 */
+		public void log(Level level, String message, Throwable thrown);
+	}
+	
+	/**
+	 * A sink that writes to the provided stream.
+	 */
+	public static class StreamSink implements Sink {
+		private final PrintStream stream;
+		
+		public StreamSink(PrintStream stream) {
+			if (stream == null) throw new IllegalArgumentException();
+			this.stream = stream;
+		}
+		
+		@Override
+		public void log(Level level, String message, Throwable thrown) {
+			stream.println("[FTPLite " + level + "] " + message);
+			if (thrown != null) thrown.printStackTrace(stream);
+		}
+	}
+	
+	private static volatile Level level = Level.WARN;
+	private static volatile Sink sink = new StreamSink(System.err);
+	
+	/**
+	 * Sets the minimum level of messages that are logged.
+	 * @param level the level
+	 */
+	public static void setLevel(Level level) {
+		if (level == null) throw new IllegalArgumentException();
+		FTPLog.level = level;
+	}
+	public static Level getLevel() {
+		return level;
+	}
+	
+	/**
+	 * Sets the sink that messages are written to.
+	 * @param sink the sink
+	 */
+	public static void setSink(Sink sink) {
+		if (sink == null) throw new IllegalArgumentException();
+		FTPLog.sink = sink;
+	}
+	public static Sink getSink() {
+		return sink;
+	}
+	
+	/**
+	 * Gets whether messages of the provided level are logged.
+	 * @param level the level
+	 * @return whether the level is enabled
+	 */
+	public static boolean isEnabled(Level level) {
+		return level != Level.OFF && level.compareTo(FTPLog.level) >= 0;
+	}
+	
+	/**
+	 * Logs a message if its level is enabled.
+	 * @param level the level of the message
+	 * @param message the message
+	 */
+	public static void log(Level level, String message) {
+		if (isEnabled(level)) sink.log(level, message, null);
+	}
+	
+	/**
+	 * Logs a message and an exception if its level is enabled.
+	 * @param level the level of the message
+	 * @param message the message
+	 * @param thrown the exception
+	 */
+	public static void log(Level level, String message, Throwable thrown) {
+		if (isEnabled(level)) sink.log(level, message, thrown);
+	}
+	
+	/**
+	 * Builds and logs a message if its level is enabled.
+	 * @param level the level of the message
+	 * @param message the message
+	 */
+	public static void log(Level level, Message message) {
+		if (isEnabled(level)) sink.log(level, message.get(), null);
+	}
+}
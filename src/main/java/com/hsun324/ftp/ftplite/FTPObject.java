@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,7 +35,7 @@ public class FTPObject {
 				if (matcher.find()) {
 					FTPObjectType type = FTPObjectType.FILE;
 					Date modified = new Date(0);
-					int size = -1;
+					long size = -1;
 	
 					String[] split = matcher.group(1).split(";");
 					for(String fact : split) {
@@ -44,9 +45,10 @@ public class FTPObject {
 								if (factPair[1].equalsIgnoreCase("dir")) type = FTPObjectType.DIRECTORY;
 								else if (!factPair[1].equalsIgnoreCase("file")) return null;
 							} else if (factPair[0].equalsIgnoreCase("size")) {
-								size = i(factPair[1]);
-							} else if (factPair[0].equalsIgnoreCase("modified")) {
-								modified = getDate(factPair[1]);
+								size = Long.parseLong(factPair[1]);
+							} else if (factPair[0].equalsIgnoreCase("modify") || factPair[0].equalsIgnoreCase("modified")) {
+								Date date = getDate(factPair[1]);
+								if (date != null) modified = date;
 							}
 						}
 					}
@@ -60,13 +62,23 @@ public class FTPObject {
 		return null;
 	}
 	
-	private static final Pattern DATE_PATTERN = Pattern.compile("(\\d{4})(\\d{2})(\\d{2})(\\d{2})(\\d{2})(\\d{2})", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
-	private static Date getDate(String date) {
+	private static final Pattern DATE_PATTERN = Pattern.compile("(\\d{4})(\\d{2})(\\d{2})(\\d{2})(\\d{2})(\\d{2})(?:\\.(\\d+))?", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	/**
+	 * Parses a time value as used by MDTM and the modify fact of MLST,
+	 * which is always in UTC (RFC 3659).
+	 * @param date the time value
+	 * @return the date or <code>null</code> if it is malformed
+	 */
+	static Date getDate(String date) {
 		Matcher matcher = DATE_PATTERN.matcher(date);
 		if (matcher.find()) {
-			Calendar calendar = Calendar.getInstance();
-			calendar.set(i(matcher.group(1)), i(matcher.group(2)), i(matcher.group(3)),
-					i(matcher.group(4)), i(matcher.group(5)), i(matcher.group(63)));
+			Calendar calendar = Calendar.getInstance(UTC);
+			calendar.clear();
+			calendar.set(i(matcher.group(1)), i(matcher.group(2)) - 1, i(matcher.group(3)),
+					i(matcher.group(4)), i(matcher.group(5)), i(matcher.group(6)));
+			String fraction = matcher.group(7);
+			if (fraction != null) calendar.set(Calendar.MILLISECOND, i((fraction + "00").substring(0, 3)));
 			return calendar.getTime();
 		}
 		return null;
@@ -207,8 +219,8 @@ public class FTPObject {
 	private String[] joinArrays(String[] x, String[] y) {
 		   int lengthX = x.length, lengthY = y.length;
 		   String[] sum = new String[lengthX + lengthY];
-		   System.arraycopy(x, 0, y, 0, lengthX);
-		   System.arraycopy(x, 0, y, lengthX, lengthY);
+		   System.arraycopy(x, 0, sum, 0, lengthX);
+		   System.arraycopy(y, 0, sum, lengthX, lengthY);
 		   return sum;
 	}
 	private List<String> addValidTokens(List<String> list, String path) {
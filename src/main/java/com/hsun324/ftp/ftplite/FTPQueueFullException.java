@@ -0,0 +1,35 @@
+package com.hsun324.ftp.ftplite;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a command cannot be queued because the client's command
+ * queue is full and its queue policy does not allow waiting any longer.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPQueueFullException extends IOException {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The capacity of the full queue.
+	 */
+	private final int capacity;
+	
+	/**
+	 * Creates a <code>FTPQueueFullException</code> for a queue of the provided capacity.
+	 * @param capacity the queue capacity
+	 */
+	public FTPQueueFullException(int capacity) {
+		super("command queue full (capacity " + capacity + ")");
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Gets the capacity of the full queue.
+	 * @return the queue capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -1,5 +1,7 @@
 package com.hsun324.ftp.ftplite;
 
+import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+
 /**
  * This class represents a response from the server including
  * a FTP response code and optionally multi-line content.
@@ -12,13 +14,13 @@ public class FTPResponse {
 	 */
 	private final int code;
 	/**
-	 * The response content.
+	 * The undecoded response content.
 	 */
-	private final String content;
+	private final byte[] contentBytes;
 	/**
-	 * The combined response.
+	 * The response content.
 	 */
-	private final String rep;
+	private String content;
 	
 	/**
 	 * Creates a <code>FTPResponse</code> with the provided code, and content.
@@ -27,8 +29,20 @@ public class FTPResponse {
 	 */
 	public FTPResponse(int code, String content) {
 		this.code = code;
+		this.contentBytes = null;
 		this.content = content;
-		this.rep = code + " " + content;
+	}
+	
+	/**
+	 * Creates a <code>FTPResponse</code> with the provided code, and ASCII
+	 * content that is only decoded when it is requested.
+	 * @param code response code
+	 * @param content response content.
+	 */
+	public FTPResponse(int code, byte[] content) {
+		this.code = code;
+		this.contentBytes = content;
+		this.content = null;
 	}
 	
 	/**
@@ -43,9 +57,10 @@ public class FTPResponse {
 	 * @return response content.
 	 */
 	public String getContent() {
+		if (content == null) content = new String(contentBytes, FTPFiletype.ASCII.getCharset());
 		return content;
 	}
 	public String toString() {
-		return rep;
+		return code + " " + getContent();
 	}
 }
@@ -34,8 +34,22 @@ public class FTPResult {
 	 * @param data command data
 	 */
 	public FTPResult(boolean success, byte[] data) {
+		this(success, data, data != null ? data.length : 0);
+	}
+	/**
+	 * Creates a <code>FTPResult</code> with the specified success, data and
+	 * number of bytes moved over the data channel.
+	 * <p>
+	 * Streaming commands that hand their data to a caller supplied sink
+	 * use this constructor with <code>null</code> data.
+	 * @param success success
+	 * @param data command data
+	 * @param transferred transferred byte count
+	 */
+	public FTPResult(boolean success, byte[] data, long transferred) {
 		this.success = success;
 		this.data = data;
+		this.transferred = transferred;
 	}
 
 	/**
@@ -47,6 +61,10 @@ public class FTPResult {
 	 * The result data.
 	 */
 	protected final byte[] data;
+	/**
+	 * The number of bytes moved over the data channel.
+	 */
+	protected final long transferred;
 
 	/**
 	 * Gets whether this result represents success.
@@ -62,6 +80,14 @@ public class FTPResult {
 	public byte[] getData() {
 		return data;
 	}
+	/**
+	 * Gets the number of bytes moved over the data channel
+	 * by the command this result represents.
+	 * @return transferred byte count
+	 */
+	public long getTransferredBytes() {
+		return transferred;
+	}
 	
 	/**
 	 * Commands a logical "OR" operation between this
@@ -72,7 +98,8 @@ public class FTPResult {
 	public FTPResult or(FTPResult result) {
 		return new FTPResult(
 			success && result.success,
-			result.data != null ? result.data : data
+			result.data != null ? result.data : data,
+			result.transferred > 0 ? result.transferred : transferred
 		);
 	}
 }
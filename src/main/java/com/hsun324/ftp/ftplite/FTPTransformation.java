@@ -1,8 +1,5 @@
 package com.hsun324.ftp.ftplite;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.hsun324.ftp.ftplite.FTPFile;
 import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
@@ -26,6 +23,10 @@ public abstract class FTPTransformation<T> {
 			if (clientInterface.getCurrentFiletype() == FTPFiletype.BINARY) return new FTPFile(data);
 			return new FTPFile(data, FTPFiletype.ASCII.getCharset());
 		}
+		@Override
+		public FTPFile copy(FTPFile data) {
+			return new FTPFile(data);
+		}
 	};
 
 	/**
@@ -40,28 +41,56 @@ public abstract class FTPTransformation<T> {
 	};
 
 	/**
-	 * A {@link FTPEntity} prototype array.
+	 * A generic transformation for decimal ASCII responses that converts byte arrays
+	 * into <code>Long</code>s.
 	 */
-	private static final FTPObject[] FTPENTITY_PROTOTYPE_ARRAY = new FTPObject[0];
+	public static final FTPTransformation<Long> NUMBER_TRANSFORMATION = new FTPTransformation<Long>() {
+		@Override
+		public Long transform(FTPInterface clientInterface, byte[] data) throws Exception {
+			return Long.valueOf(new String(data, FTPFiletype.ASCII.getCharset()).trim());
+		}
+	};
+
 	/**
 	 * A generic transformation for file list responses that converts byte arrays
 	 * into {@link FTPEntity}<code>[]</code>s.
+	 * <p>
+	 * The listing is parsed line by line with a {@link FTPListingParser},
+	 * in parallel if it is large.
 	 */
 	public static final FTPTransformation<FTPObject[]> FILELIST_TRANSFORMATION = new FTPTransformation<FTPObject[]> () {
 		@Override
 		public FTPObject[] transform(FTPInterface clientInterface, byte[] data) throws Exception {
-			// TODO: proper newline splitting
-			String[] lines = new String(data).split("\r\n?|\n\r?");
-			List<FTPObject> list = new ArrayList<FTPObject>();
-			int length = lines.length;
-			for (int i = 0; i < length; i++) {
-				FTPObject entity = FTPObject.parseEntity(clientInterface.getCurrentDirectory(), lines[i]);
-				if (entity != null) list.add(entity);
-			}
-			return list.toArray(FTPENTITY_PROTOTYPE_ARRAY);
+			return FTPListingParser.parse(clientInterface.getCurrentDirectory(), data, FTPListingParser.getCharset(clientInterface));
+		}
+		@Override
+		public FTPObject[] copy(FTPObject[] data) {
+			return data.clone();
 		}
 	};
 
+	/**
+	 * Gets a transformation for the listing of the provided directory, which
+	 * converts byte arrays into {@link FTPObject}<code>[]</code>s with paths
+	 * relative to the directory rather than to the current directory.
+	 * @param directory the listed directory or <code>null</code> for the current directory
+	 * @return the transformation
+	 */
+	public static FTPTransformation<FTPObject[]> getListingTransformation(final FTPObject directory) {
+		if (directory == null) return FILELIST_TRANSFORMATION;
+		return new FTPTransformation<FTPObject[]>() {
+			@Override
+			public FTPObject[] transform(FTPInterface clientInterface, byte[] data) throws Exception {
+				FTPObject listed = new FTPObject(clientInterface.getCurrentDirectory(), directory);
+				return FTPListingParser.parse(listed, data, FTPListingParser.getCharset(clientInterface));
+			}
+			@Override
+			public FTPObject[] copy(FTPObject[] data) {
+				return data.clone();
+			}
+		};
+	}
+	
 	/**
 	 * A generic transformation function that takes a state and byte array and turns
 	 * the byte array into a more useful data structure.
@@ -73,4 +102,17 @@ public abstract class FTPTransformation<T> {
 	 * @throws Exception
 	 */
 	public abstract T transform(FTPInterface clientInterface, byte[] data) throws Exception;
+	
+	/**
+	 * Copies a data structure made by this transformation, so that callers
+	 * that share one transfer can each change their own copy.
+	 * <p>
+	 * The default implementation returns the data structure itself, which
+	 * suits immutable types.
+	 * @param data the data structure
+	 * @return the copy
+	 */
+	public T copy(T data) {
+		return data;
+	}
 }
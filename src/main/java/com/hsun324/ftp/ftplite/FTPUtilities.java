@@ -5,7 +5,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,6 +29,16 @@ import com.hsun324.ftp.ftplite.commands.ModeCommand;
 public class FTPUtilities {
 	private FTPUtilities() {}
 
+	/**
+	 * The size of the fixed buffer used by streaming transfers.
+	 */
+	public static final int TRANSFER_BUFFER_SIZE = 8192;
+	/**
+	 * The maximum number of bytes moved by a single <code>FileChannel</code>
+	 * transfer call.
+	 */
+	private static final long FILE_TRANSFER_CHUNK_SIZE = 1 << 20;
+
 	/**
 	 * The pattern for retrieving filenames from paths. This pattern is very lenient on path format. The separator character is a "/".
 	 */
@@ -35,17 +53,259 @@ public class FTPUtilities {
 	 * <p>
 	 * The implementation of this method will cause a temporary memory use
 	 * of up to the equivalent of three times the size of the resulting array.
+	 * The read buffer is leased from {@link FTPBufferPool#HEAP}.
 	 * @param stream the stream to read
 	 * @return the read bytes
 	 * @throws IOException
 	 */
 	public static byte[] readAll(InputStream stream) throws IOException {
 		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-		byte[] buffer = new byte[100];
+		ByteBuffer buffer = FTPBufferPool.HEAP.lease(TRANSFER_BUFFER_SIZE);
+		try {
+			byte[] array = buffer.array();
+			int len = 0;
+			while((len = stream.read(array, 0, TRANSFER_BUFFER_SIZE)) != -1)
+				outStream.write(array, 0, len);
+			return outStream.toByteArray();
+		} finally {
+			FTPBufferPool.HEAP.release(buffer);
+		}
+	}
+	
+	/**
+	 * Copies all the available bytes in the provided stream to the provided
+	 * sink as they arrive.
+	 * <p>
+	 * Unlike <code>readAll(InputStream)</code>, this method only uses a single
+	 * buffer of <code>TRANSFER_BUFFER_SIZE</code> bytes regardless of the amount
+	 * of data transferred, leased from {@link FTPBufferPool#HEAP}. The sink is
+	 * not closed by this method.
+	 * @param stream the stream to read
+	 * @param sink the channel to write to
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 */
+	public static long transfer(InputStream stream, WritableByteChannel sink) throws IOException {
+		ByteBuffer buffer = FTPBufferPool.HEAP.lease(TRANSFER_BUFFER_SIZE);
+		try {
+			byte[] array = buffer.array();
+			long total = 0;
+			int len = 0;
+			while ((len = stream.read(array, 0, TRANSFER_BUFFER_SIZE)) != -1) {
+				buffer.limit(len);
+				while (buffer.hasRemaining()) sink.write(buffer);
+				buffer.clear();
+				total += len;
+			}
+			return total;
+		} finally {
+			FTPBufferPool.HEAP.release(buffer);
+		}
+	}
+	
+	/**
+	 * Copies all the bytes available from the provided source channel
+	 * to the provided stream in chunks of at most <code>TRANSFER_BUFFER_SIZE</code>
+	 * bytes.
+	 * <p>
+	 * The buffer is leased from {@link FTPBufferPool#HEAP}. The source is not
+	 * closed by this method.
+	 * @param source the channel to read
+	 * @param stream the stream to write to
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 */
+	public static long transfer(ReadableByteChannel source, OutputStream stream) throws IOException {
+		ByteBuffer buffer = FTPBufferPool.HEAP.lease(TRANSFER_BUFFER_SIZE);
+		try {
+			buffer.limit(TRANSFER_BUFFER_SIZE);
+			byte[] array = buffer.array();
+			long total = 0;
+			int len = 0;
+			while ((len = source.read(buffer)) != -1) {
+				stream.write(array, 0, len);
+				buffer.clear().limit(TRANSFER_BUFFER_SIZE);
+				total += len;
+			}
+			return total;
+		} finally {
+			FTPBufferPool.HEAP.release(buffer);
+		}
+	}
+	
+	/**
+	 * Copies all the bytes available from the provided source channel
+	 * to the provided sink channel.
+	 * <p>
+	 * If the sink is a <code>FileChannel</code>, the data is moved with
+	 * <code>FileChannel.transferFrom</code>, and if the source is a
+	 * <code>FileChannel</code> the data is moved with <code>FileChannel.transferTo</code>,
+	 * letting the operating system move the bytes without copying them
+	 * through a user-space buffer where it supports it. The position of the
+	 * file channel is advanced past the transferred bytes. In all other cases
+	 * a single direct buffer of <code>TRANSFER_BUFFER_SIZE</code> bytes, leased
+	 * from {@link FTPBufferPool#DIRECT}, is used.
+	 * <p>
+	 * Neither channel is closed by this method.
+	 * @param source the channel to read
+	 * @param sink the channel to write to
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 */
+	public static long transfer(ReadableByteChannel source, WritableByteChannel sink) throws IOException {
+		return transfer(source, sink, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Copies at most <code>limit</code> bytes from the provided source channel
+	 * to the provided sink channel.
+	 * @param source the channel to read
+	 * @param sink the channel to write to
+	 * @param limit the maximum number of bytes to transfer
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 * @see #transfer(ReadableByteChannel, WritableByteChannel)
+	 */
+	public static long transfer(ReadableByteChannel source, WritableByteChannel sink, long limit) throws IOException {
+		return transfer(source, sink, limit, null);
+	}
+	
+	/**
+	 * Copies at most <code>limit</code> bytes from the provided source channel
+	 * to the provided sink channel, adding the number of bytes moved to
+	 * <code>progress</code> as the transfer proceeds.
+	 * <p>
+	 * If the transfer fails part way, <code>progress</code> holds the number of
+	 * bytes that were written to the sink before the failure, and a file channel
+	 * is left positioned after those bytes.
+	 * @param source the channel to read
+	 * @param sink the channel to write to
+	 * @param limit the maximum number of bytes to transfer
+	 * @param progress the progress counter, or <code>null</code>
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 * @see #transfer(ReadableByteChannel, WritableByteChannel)
+	 */
+	public static long transfer(ReadableByteChannel source, WritableByteChannel sink, long limit, AtomicLong progress) throws IOException {
+		if (sink instanceof FileChannel) {
+			FileChannel file = (FileChannel) sink;
+			long start = file.position();
+			long end = limit == Long.MAX_VALUE ? Long.MAX_VALUE : start + limit;
+			long position = start;
+			long len = 0;
+			try {
+				while (position < end && (len = file.transferFrom(source, position, Math.min(FILE_TRANSFER_CHUNK_SIZE, end - position))) > 0) {
+					position += len;
+					if (progress != null) progress.addAndGet(len);
+				}
+			} finally {
+				file.position(position);
+			}
+			return position - start;
+		} else if (source instanceof FileChannel) {
+			FileChannel file = (FileChannel) source;
+			long start = file.position();
+			long end = start + Math.min(limit, file.size() - start);
+			long position = start;
+			long len = 0;
+			try {
+				while (position < end && (len = file.transferTo(position, Math.min(FILE_TRANSFER_CHUNK_SIZE, end - position), sink)) > 0) {
+					position += len;
+					if (progress != null) progress.addAndGet(len);
+				}
+			} finally {
+				file.position(position);
+			}
+			return position - start;
+		}
+		
+		ByteBuffer buffer = FTPBufferPool.DIRECT.lease(TRANSFER_BUFFER_SIZE);
+		try {
+			return transfer(source, sink, limit, progress, buffer);
+		} finally {
+			FTPBufferPool.DIRECT.release(buffer);
+		}
+	}
+	
+	/**
+	 * Copies at most <code>limit</code> bytes from the provided source channel
+	 * to the provided sink channel through the provided buffer, adding the
+	 * number of bytes moved to <code>progress</code> as the transfer proceeds.
+	 * <p>
+	 * Unlike the other <code>transfer</code> methods, this method never uses
+	 * <code>FileChannel</code> transfers. The buffer's contents are overwritten.
+	 * @param source the channel to read
+	 * @param sink the channel to write to
+	 * @param limit the maximum number of bytes to transfer
+	 * @param progress the progress counter, or <code>null</code>
+	 * @param buffer the buffer to copy through
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 */
+	public static long transfer(ReadableByteChannel source, WritableByteChannel sink, long limit, AtomicLong progress, ByteBuffer buffer) throws IOException {
+		if (buffer == null || buffer.capacity() == 0) throw new IllegalArgumentException();
+		int size = buffer.capacity();
+		buffer.clear();
+		long total = 0;
 		int len = 0;
-		while((len = stream.read(buffer)) != -1)
-			outStream.write(buffer, 0, len);
-		return outStream.toByteArray();
+		while (total < limit) {
+			if (limit - total < size) buffer.limit((int) (limit - total));
+			if ((len = source.read(buffer)) == -1) break;
+			buffer.flip();
+			while (buffer.hasRemaining()) sink.write(buffer);
+			buffer.clear();
+			total += len;
+			if (progress != null) progress.addAndGet(len);
+		}
+		return total;
+	}
+	
+	/**
+	 * Opens a channel for transferring data to or from the server.
+	 * <p>
+	 * Unlike the streams returned by <code>openTransferStream</code> and
+	 * <code>openPushStream</code>, the returned channel can be used with
+	 * <code>FileChannel</code> transfers.
+	 * @param modeCommand the current mode command
+	 * @param host the client host
+	 * @param port the client port
+	 * @return the channel
+	 * @throws IOException
+	 */
+	public static SocketChannel openDataChannel(ModeCommand modeCommand, String host, int port) throws IOException {
+		return openDataChannel(modeCommand, host, port, 0);
+	}
+	
+	/**
+	 * Opens a blocking channel for transferring data with the server,
+	 * waiting at most the provided time for the connection.
+	 * @param modeCommand the current mode command
+	 * @param host the client host
+	 * @param port the client port
+	 * @param timeout the connect timeout in milliseconds, or <code>0</code> to wait forever
+	 * @return the channel
+	 * @throws IOException
+	 */
+	public static SocketChannel openDataChannel(ModeCommand modeCommand, String host, int port, int timeout) throws IOException {
+		if (modeCommand.isActive()) {
+			ServerSocketChannel server = ServerSocketChannel.open();
+			try {
+				server.socket().bind(new InetSocketAddress(port));
+				server.socket().setSoTimeout(timeout);
+				return server.socket().accept().getChannel();
+			} finally {
+				server.close();
+			}
+		}
+		
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(host, port), timeout);
+			return channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
 	}
 	
 	/**
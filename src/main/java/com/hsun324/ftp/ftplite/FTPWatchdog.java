@@ -0,0 +1,166 @@
+package com.hsun324.ftp.ftplite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+
+/**
+ * A class that enforces deadlines and watches transfers for stalls.
+ * <p>
+ * A single daemon thread runs every check. Deadlines are scheduled with
+ * <code>schedule</code>. Transfers are watched with <code>watch</code>,
+ * which samples a progress counter and closes the transfer's channel if
+ * no bytes arrive for the stall timeout, or if fewer bytes than the
+ * minimum throughput arrive over a whole period. Closing the channel makes
+ * the blocked transfer fail at once instead of hanging.
+ * @author hsun324
+ * @version 0.7
+ */
+public final class FTPWatchdog {
+	private FTPWatchdog() {}
+	
+	/**
+	 * The longest time between two samples of a watched transfer.
+	 */
+	private static final long MAXIMUM_SAMPLE_INTERVAL = 1000;
+	/**
+	 * The shortest time between two samples of a watched transfer.
+	 */
+	private static final long MINIMUM_SAMPLE_INTERVAL = 10;
+	
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "FTPL-WATCHDOG");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * A watch that does nothing, returned when no limit is set.
+	 */
+	private static final Watch NO_WATCH = new Watch(null, null, 0, 0, 0);
+	
+	/**
+	 * Runs the provided task once after the provided delay.
+	 * @param task the task to run
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return a handle that cancels the task
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return SCHEDULER.schedule(task, delay, unit);
+	}
+	
+	/**
+	 * Starts watching a transfer.
+	 * @param progress the number of bytes transferred so far
+	 * @param channel the channel to close if the transfer stalls
+	 * @param stallTimeout the longest time in milliseconds without progress, or <code>0</code>
+	 * @param minimumThroughput the minimum bytes per second over a period, or <code>0</code>
+	 * @param period the length of a throughput period in milliseconds
+	 * @return the watch, which must be cancelled when the transfer ends
+	 */
+	public static Watch watch(AtomicLong progress, Closeable channel, long stallTimeout, long minimumThroughput, long period) {
+		if (stallTimeout <= 0 && (minimumThroughput <= 0 || period <= 0)) return NO_WATCH;
+		
+		Watch watch = new Watch(progress, channel, stallTimeout, minimumThroughput, period);
+		long interval = MAXIMUM_SAMPLE_INTERVAL;
+		if (stallTimeout > 0) interval = Math.min(interval, stallTimeout / 4);
+		if (minimumThroughput > 0 && period > 0) interval = Math.min(interval, period / 4);
+		interval = Math.max(interval, MINIMUM_SAMPLE_INTERVAL);
+		
+		watch.task = SCHEDULER.scheduleAtFixedRate(watch, interval, interval, TimeUnit.MILLISECONDS);
+		return watch;
+	}
+	
+	/**
+	 * A watch over a single transfer.
+	 */
+	public static class Watch implements Runnable {
+		private final AtomicLong progress;
+		private final Closeable channel;
+		private final long stallTimeout;
+		private final long minimumThroughput;
+		private final long period;
+		
+		private volatile ScheduledFuture<?> task = null;
+		private volatile boolean tripped = false;
+		
+		private long lastBytes;
+		private long lastProgress;
+		private long periodBytes;
+		private long periodStart;
+		
+		private Watch(AtomicLong progress, Closeable channel, long stallTimeout, long minimumThroughput, long period) {
+			this.progress = progress;
+			this.channel = channel;
+			this.stallTimeout = stallTimeout;
+			this.minimumThroughput = minimumThroughput;
+			this.period = period;
+			
+			long now = System.currentTimeMillis();
+			this.lastBytes = this.periodBytes = progress == null ? 0 : progress.get();
+			this.lastProgress = this.periodStart = now;
+		}
+		
+		/**
+		 * Gets whether this watch aborted its transfer.
+		 * @return whether the transfer was aborted
+		 */
+		public boolean isTripped() {
+			return tripped;
+		}
+		
+		/**
+		 * Stops watching the transfer.
+		 */
+		public void cancel() {
+			ScheduledFuture<?> task = this.task;
+			if (task != null) task.cancel(false);
+		}
+		
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			long bytes = progress.get();
+			
+			if (bytes != lastBytes) {
+				lastBytes = bytes;
+				lastProgress = now;
+			} else if (stallTimeout > 0 && now - lastProgress >= stallTimeout) {
+				trip("no data for " + (now - lastProgress) + "ms");
+				return;
+			}
+			
+			if (minimumThroughput > 0 && period > 0 && now - periodStart >= period) {
+				long rate = (bytes - periodBytes) * 1000 / (now - periodStart);
+				if (rate < minimumThroughput) {
+					trip("throughput " + rate + "B/s below " + minimumThroughput + "B/s");
+					return;
+				}
+				periodBytes = bytes;
+				periodStart = now;
+			}
+		}
+		
+		private void trip(String reason) {
+			tripped = true;
+			cancel();
+			FTPLog.log(Level.WARN, "aborting transfer: " + reason);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+	}
+}
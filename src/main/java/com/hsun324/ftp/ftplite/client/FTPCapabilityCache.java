@@ -0,0 +1,260 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+
+/**
+ * A cache of the capabilities servers announce in reply to FEAT, kept per
+ * host and port.
+ * <p>
+ * When a client logs in to a server whose capabilities are cached, it applies
+ * them and skips the SYST and FEAT round trips. Entries expire after a time to
+ * live so that servers that change their features are asked again. A cache
+ * created with a file loads its entries from that file and writes them back
+ * whenever an entry is added, so they survive restarts.
+ * <p>
+ * Clients do not use a capability cache unless one is set with
+ * <code>FTPClient.setCapabilityCache</code>.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPCapabilityCache {
+	/**
+	 * The cache shared by every client that opts in to it, which keeps its
+	 * entries in memory for ten minutes.
+	 */
+	private static final FTPCapabilityCache DEFAULT = new FTPCapabilityCache(10, TimeUnit.MINUTES);
+	
+	private final long timeToLive;
+	private final Path file;
+	private final Lock fileLock = new ReentrantLock();
+	
+	private final Map<String, Capabilities> entries = new ConcurrentHashMap<String, Capabilities>();
+	
+	/**
+	 * Creates a <code>FTPCapabilityCache</code> that keeps its entries in memory.
+	 * @param timeToLive the time an entry stays valid
+	 * @param unit the unit of the time to live
+	 */
+	public FTPCapabilityCache(long timeToLive, TimeUnit unit) {
+		this(timeToLive, unit, null);
+	}
+	
+	/**
+	 * Creates a <code>FTPCapabilityCache</code> that keeps its entries in memory
+	 * and in the provided file. Entries already in the file are loaded.
+	 * @param timeToLive the time an entry stays valid
+	 * @param unit the unit of the time to live
+	 * @param file the file to persist entries to or <code>null</code>
+	 */
+	public FTPCapabilityCache(long timeToLive, TimeUnit unit, Path file) {
+		if (timeToLive <= 0 || unit == null) throw new IllegalArgumentException();
+		this.timeToLive = unit.toMillis(timeToLive);
+		this.file = file;
+		if (file != null && Files.exists(file)) load();
+	}
+	
+	/**
+	 * Gets a cache shared by the whole virtual machine, for clients that
+	 * do not need a cache of their own.
+	 * @return the default cache
+	 */
+	public static FTPCapabilityCache getDefault() {
+		return DEFAULT;
+	}
+	
+	/**
+	 * Gets the cached capabilities of a server.
+	 * @param host the server host
+	 * @param port the server port
+	 * @return the capabilities or <code>null</code> if they are unknown or expired
+	 */
+	public Capabilities get(String host, int port) {
+		String key = getKey(host, port);
+		Capabilities capabilities = entries.get(key);
+		if (capabilities == null) return null;
+		if (System.currentTimeMillis() - capabilities.getTimestamp() >= timeToLive) {
+			entries.remove(key, capabilities);
+			return null;
+		}
+		return capabilities;
+	}
+	
+	/**
+	 * Caches the capabilities of a server.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param capabilities the capabilities
+	 */
+	public void put(String host, int port, Capabilities capabilities) {
+		if (capabilities == null) throw new IllegalArgumentException();
+		entries.put(getKey(host, port), capabilities);
+		if (file != null) store();
+	}
+	
+	/**
+	 * Removes the cached capabilities of a server, so that the next login
+	 * asks the server again.
+	 * @param host the server host
+	 * @param port the server port
+	 */
+	public void invalidate(String host, int port) {
+		if (entries.remove(getKey(host, port)) != null && file != null) store();
+	}
+	
+	private static String getKey(String host, int port) {
+		return host.toLowerCase() + ":" + port;
+	}
+	
+	private void load() {
+		fileLock.lock();
+		try {
+			Properties properties = new Properties();
+			InputStream stream = Files.newInputStream(file);
+			try {
+				properties.load(stream);
+			} finally {
+				stream.close();
+			}
+			for (String key : properties.stringPropertyNames()) {
+				Capabilities capabilities = Capabilities.parse(properties.getProperty(key));
+				if (capabilities != null) entries.put(key, capabilities);
+			}
+		} catch (IOException e) {
+			FTPLog.log(Level.WARN, "could not load capability cache", e);
+		} finally {
+			fileLock.unlock();
+		}
+	}
+	
+	private void store() {
+		fileLock.lock();
+		try {
+			Properties properties = new Properties();
+			for (Map.Entry<String, Capabilities> entry : entries.entrySet())
+				properties.setProperty(entry.getKey(), entry.getValue().format());
+			
+			// written to a temporary file first so a crash never leaves a partial cache
+			Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+			OutputStream stream = Files.newOutputStream(temporary);
+			try {
+				properties.store(stream, "FTPLite capability cache");
+			} finally {
+				stream.close();
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			FTPLog.log(Level.WARN, "could not store capability cache", e);
+		} finally {
+			fileLock.unlock();
+		}
+	}
+	
+	/**
+	 * The capabilities a server announced in reply to FEAT.
+	 */
+	public static final class Capabilities {
+		private final Set<Feature> features;
+		private final String[] metadataParameters;
+		private final long timestamp;
+		
+		/**
+		 * Creates a <code>Capabilities</code> observed now.
+		 * @param features the supported features
+		 * @param metadataParameters the facts listed for MLST
+		 */
+		public Capabilities(Set<Feature> features, String[] metadataParameters) {
+			this(features, metadataParameters, System.currentTimeMillis());
+		}
+		
+		private Capabilities(Set<Feature> features, String[] metadataParameters, long timestamp) {
+			if (features == null || metadataParameters == null) throw new IllegalArgumentException();
+			EnumSet<Feature> copy = EnumSet.noneOf(Feature.class);
+			copy.addAll(features);
+			this.features = Collections.unmodifiableSet(copy);
+			this.metadataParameters = metadataParameters.clone();
+			this.timestamp = timestamp;
+		}
+		
+		/**
+		 * Gets the supported features.
+		 * @return the features
+		 */
+		public Set<Feature> getFeatures() {
+			return features;
+		}
+		
+		/**
+		 * Gets the facts the server lists for MLST.
+		 * @return the metadata parameters
+		 */
+		public String[] getMetadataParameters() {
+			return metadataParameters.clone();
+		}
+		
+		/**
+		 * Gets the time these capabilities were observed.
+		 * @return the time in milliseconds
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		/**
+		 * Applies these capabilities to a client.
+		 * @param inter the client state
+		 */
+		public void apply(FTPInterface inter) {
+			for (Feature feature : Feature.values()) inter.setFeatureSupported(feature, features.contains(feature));
+			inter.setMetadataParameters(metadataParameters.clone());
+		}
+		
+		private String format() {
+			StringBuilder builder = new StringBuilder().append(timestamp).append('|');
+			boolean first = true;
+			for (Feature feature : features) {
+				if (!first) builder.append(',');
+				builder.append(feature.name());
+				first = false;
+			}
+			builder.append('|');
+			for (int i = 0; i < metadataParameters.length; i++) {
+				if (i > 0) builder.append(';');
+				builder.append(metadataParameters[i]);
+			}
+			return builder.toString();
+		}
+		
+		private static Capabilities parse(String text) {
+			String[] parts = text.split("\\|", -1);
+			if (parts.length != 3) return null;
+			try {
+				EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+				for (String name : parts[1].split(","))
+					if (!name.isEmpty()) features.add(Feature.valueOf(name));
+				String[] parameters = parts[2].isEmpty() ? new String[0] : parts[2].split(";");
+				return new Capabilities(features, parameters, Long.parseLong(parts[0]));
+			} catch (IllegalArgumentException e) {
+				// entries written by another version are ignored
+				return null;
+			}
+		}
+	}
+}
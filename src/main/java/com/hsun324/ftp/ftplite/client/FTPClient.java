@@ -3,14 +3,41 @@ package com.hsun324.ftp.ftplite.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.hsun324.ftp.ftplite.FTPFile;
+import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+import com.hsun324.ftp.ftplite.FTPFileStatus;
 import com.hsun324.ftp.ftplite.FTPFuture;
 import com.hsun324.ftp.ftplite.FTPFutureData;
+import com.hsun324.ftp.ftplite.FTPListingHandler;
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
 import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPQueueFullException;
+import com.hsun324.ftp.ftplite.FTPResult;
 import com.hsun324.ftp.ftplite.FTPTransformation;
 import com.hsun324.ftp.ftplite.FTPTypeDecider;
 import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+import com.hsun324.ftp.ftplite.client.FTPInterface.QueuePolicy;
 import com.hsun324.ftp.ftplite.commands.*;
 import com.hsun324.ftp.ftplite.commands.TextCommandDirectory.DirectoryAction;
 import com.hsun324.ftp.ftplite.commands.UploadCommandFile.FileAction;
@@ -25,11 +52,36 @@ import com.hsun324.ftp.ftplite.commands.UploadCommandFile.FileAction;
  * instead are represented by either {@link FTPFuture} or
  * {@link FTPFutureData} objects with blocking result retrieval
  * methods.
+ * <p>
+ * Identical calls to <code>getFile(FTPObject)</code> or <code>getFileList</code>
+ * made while the first one is still in flight share its transfer rather than
+ * transferring the data again, unless another command was queued between them.
+ * Each caller still gets its own future and its own copy of the data, and
+ * can cancel it without affecting the others.
  * 
  * @author hsun324
  * @version 0.7
  */
 public abstract class FTPClient {
+	private volatile Executor callbackExecutor = null;
+	private volatile FTPListingCache listingCache = null;
+	private volatile FTPStatusCache statusCache = null;
+	
+	/**
+	 * The number of directory changes queued but not yet completed. While
+	 * one is pending, the directory a relative write runs in is unknown.
+	 */
+	private final AtomicInteger pendingDirectoryChanges = new AtomicInteger();
+	
+	/**
+	 * The number of commands other than coalesced reads that have been
+	 * queued. A read only attaches to an identical read queued in the
+	 * same generation, so it never sees a result from before a write.
+	 */
+	private final AtomicLong readGeneration = new AtomicLong();
+	private final Map<ReadKey, InflightRead<?>> inflightReads = new ConcurrentHashMap<ReadKey, InflightRead<?>>();
+	private final Lock readLock = new ReentrantLock();
+	
 	protected abstract FTPInterface getInterface();
 	
 	/**
@@ -41,7 +93,25 @@ public abstract class FTPClient {
 	 */
 	public FTPFuture queueCommand(Command command) throws IOException {
 		if (!getInterface().isConnected()) throw new IllegalStateException("conn closed");
-		return queueCommandUnsafe(command);
+		return queueGenerationCommand(command);
+	}
+	
+	/**
+	 * Queues a command that may change what a read returns. The generation
+	 * is bumped before the command is queued and under the read lock, so no
+	 * read queued before the command is attached to afterwards.
+	 * @param command the command to queue
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	private FTPFuture queueGenerationCommand(Command command) throws IOException {
+		readLock.lock();
+		try {
+			readGeneration.incrementAndGet();
+			return queueCommandUnsafe(command);
+		} finally {
+			readLock.unlock();
+		}
 	}
 	
 	/**
@@ -73,25 +143,60 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture connect(String user, String password) throws IOException {
-		Command firstCommand = null;
-		
-		if (!getInterface().isConnected()) {
-			beginConnection();
-			firstCommand = new TextCommandConnect();
-		} else firstCommand = new TextCommandReinitialize();
+		boolean connecting = !getInterface().isConnected();
+		Command firstCommand = connecting ? new TextCommandConnect() : new TextCommandReinitialize();
 		
-		return queueCommandUnsafe(new ChainedCommand(new Command[]{
+		// The login is queued before connecting so that it is waiting
+		// when the server's greeting arrives.
+		// reads of another session never attach to reads of this one
+		FTPFuture future = queueGenerationCommand(new ChainedCommand(new Command[]{
 			firstCommand,
 			new TextCommandUser(user),
 			new TextCommandPassword(password),
-			new TextCommandSystem(),
-			new TextCommandFeatures(),
-			new TextCommandDirectory()
+			getDiscoveryCommand()
 		}));
+		if (!connecting) {
+			FTPListingCache listings = listingCache;
+			if (listings != null) listings.invalidateAll();
+			FTPStatusCache statuses = statusCache;
+			if (statuses != null) statuses.invalidateAll();
+		}
+		if (connecting) beginConnection();
+		return future;
+	}
+	
+	/**
+	 * Gets the command that discovers the server's capabilities and the
+	 * working directory after logging in.
+	 * <p>
+	 * SYST, FEAT and PWD are independent of each other, so they are written
+	 * at once. If the capabilities of the server are in the client's
+	 * {@link FTPCapabilityCache}, they are applied and only PWD is sent.
+	 * @return the discovery command
+	 */
+	private Command getDiscoveryCommand() {
+		FTPInterface inter = getInterface();
+		FTPCapabilityCache cache = inter.getCapabilityCache();
+		FTPCapabilityCache.Capabilities capabilities = cache == null ? null : cache.get(inter.getHost(), inter.getPort());
+		if (capabilities != null) {
+			capabilities.apply(inter);
+			return new TextCommandDirectory();
+		}
+		return ChainedCommand.pipelined(new TextCommandSystem(), new TextCommandFeatures(), new TextCommandDirectory());
 	}
 	
 	protected abstract void beginConnection();
 	
+	/**
+	 * Queues a command that does nothing but that the server must answer,
+	 * which checks whether the connection is still alive.
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture noop() throws IOException {
+		return queueCommand(new TextCommandNoop());
+	}
+	
 	/**
 	 * Queues a command for the <code>FTPClient</code> to disconnect.
 	 * @throws IOException
@@ -102,20 +207,44 @@ public abstract class FTPClient {
 	
 	/**
 	 * Closes the current connection and frees related resources.
+	 * <p>
+	 * Only the first call closes the connection, so a client that is closed
+	 * by several threads at once, for example by a timeout and its user,
+	 * frees its resources exactly once.
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
 		FTPInterface inter = getInterface();
 		
-		inter.setClientState(ClientState.CLOSING);
-		closeConnection();
-		inter.setClientState(ClientState.CLOSED);
+		ClientState state;
+		do {
+			state = inter.getClientState();
+			if (state == ClientState.CLOSING || state == ClientState.CLOSED) return;
+		} while (!inter.compareAndSetClientState(state, ClientState.CLOSING));
+		
+		try {
+			closeConnection();
+		} finally {
+			inter.setClientState(ClientState.CLOSED);
+		}
 	}
 	
 	protected abstract void closeConnection() throws IOException;
 	
 	protected abstract InputStream getInputStream() throws IOException;
 	protected abstract OutputStream getOutputStream() throws IOException;
+	
+	/**
+	 * Sends a single byte on the control connection as TCP urgent data,
+	 * after every byte written to the output stream so far.
+	 * <p>
+	 * The default implementation writes the byte in band to the output stream.
+	 * @param data the byte to send
+	 * @throws IOException
+	 */
+	protected void sendUrgentData(int data) throws IOException {
+		getOutputStream().write(data);
+	}
 
 	/**
 	 * Sets the current transmission stream mode to active which
@@ -135,6 +264,193 @@ public abstract class FTPClient {
 		getInterface().setModeCommand(new ModeCommandPassive());
 	}
 
+	/**
+	 * Sets the number of commands that may be in flight on the control
+	 * connection at once.
+	 * <p>
+	 * With a window larger than one, consecutive queued commands that are
+	 * answered by a single reply and do not use the data channel, like DELE,
+	 * MKD or SIZE, are written back to back without waiting for each reply,
+	 * and replies are matched to them in order. A failed pipelined command
+	 * only fails its own {@link FTPFuture}. A window of one, the default,
+	 * disables pipelining.
+	 * @param window the pipeline window
+	 */
+	public void setPipelineWindow(int window) {
+		if (window < 1) throw new IllegalArgumentException();
+		getInterface().setPipelineWindow(window);
+	}
+	
+	/**
+	 * Sets the executor that completion stages returned by
+	 * {@link FTPFuture#asStage()} complete on. If no executor is set, the
+	 * default asynchronous executor of <code>CompletableFuture</code> is used.
+	 * Either way, callbacks never run on the thread that handles responses.
+	 * @param executor the callback executor or <code>null</code>
+	 */
+	public void setCallbackExecutor(Executor executor) {
+		this.callbackExecutor = executor;
+	}
+	public Executor getCallbackExecutor() {
+		return callbackExecutor;
+	}
+	
+	/**
+	 * Sets the maximum number of commands that may wait in the command
+	 * queue. The default capacity is unbounded.
+	 * @param capacity the queue capacity
+	 * @see #setQueuePolicy(QueuePolicy, long, TimeUnit)
+	 */
+	public void setCommandQueueCapacity(int capacity) {
+		getInterface().setCommandQueueCapacity(capacity);
+	}
+	public int getCommandQueueCapacity() {
+		return getInterface().getCommandQueueCapacity();
+	}
+	
+	/**
+	 * Sets what queueing a command does when the command queue is full.
+	 * <p>
+	 * Under {@link QueuePolicy#BLOCK}, the default, the caller waits for
+	 * space. Under {@link QueuePolicy#FAIL_FAST} a {@link FTPQueueFullException}
+	 * is thrown at once, and under {@link QueuePolicy#TIMEOUT} it is thrown
+	 * after waiting for the provided time.
+	 * @param policy the policy
+	 * @param timeout the time to wait under <code>TIMEOUT</code>
+	 * @param unit the unit of the timeout
+	 */
+	public void setQueuePolicy(QueuePolicy policy, long timeout, TimeUnit unit) {
+		getInterface().setQueuePolicy(policy, timeout, unit);
+	}
+	
+	/**
+	 * Gets the number of commands waiting in the command queue, not
+	 * counting commands that have been sent to the server.
+	 * @return the queue depth
+	 */
+	public int getCommandQueueDepth() {
+		return getInterface().getCommandQueueDepth();
+	}
+	
+	/**
+	 * Sets the time to wait for the control and data connections to be
+	 * established. Zero, the default, waits forever. The control connection
+	 * timeout only applies to connections made after this call.
+	 * @param timeout the connect timeout
+	 * @param unit the unit of the timeout
+	 */
+	public void setConnectTimeout(long timeout, TimeUnit unit) {
+		getInterface().setConnectTimeout(toTimeout(timeout, unit));
+	}
+	
+	/**
+	 * Sets the time to wait for a reply on the control connection, and for
+	 * data on a data connection, before the connection is considered dead.
+	 * A control connection that times out is closed, failing every queued
+	 * command, and a data connection that times out fails its transfer.
+	 * Zero, the default, waits forever.
+	 * @param timeout the read timeout
+	 * @param unit the unit of the timeout
+	 */
+	public void setReadTimeout(long timeout, TimeUnit unit) {
+		getInterface().setReadTimeout(toTimeout(timeout, unit));
+	}
+	
+	/**
+	 * Sets the default deadline of commands that do not use the data
+	 * channel, measured from when they are queued. Transfers are bounded
+	 * by the read timeout and minimum throughput instead. Zero, the default,
+	 * sets no deadline.
+	 * @param timeout the command timeout
+	 * @param unit the unit of the timeout
+	 * @see FTPFuture#setDeadline(long, TimeUnit)
+	 */
+	public void setCommandTimeout(long timeout, TimeUnit unit) {
+		getInterface().setCommandTimeout(toTimeout(timeout, unit));
+	}
+	
+	/**
+	 * Sets the lowest throughput a transfer may sustain. A transfer that
+	 * moves fewer than <code>bytesPerSecond</code> bytes per second over a
+	 * whole period is aborted. A rate of zero, the default, disables the check.
+	 * @param bytesPerSecond the minimum throughput
+	 * @param period the length of a period
+	 * @param unit the unit of the period
+	 */
+	public void setMinimumThroughput(long bytesPerSecond, long period, TimeUnit unit) {
+		if (bytesPerSecond < 0 || period <= 0) throw new IllegalArgumentException();
+		getInterface().setMinimumThroughput(bytesPerSecond, unit.toMillis(period));
+	}
+	
+	private static int toTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) throw new IllegalArgumentException();
+		return (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+	}
+	
+	/**
+	 * Sets the trace that records this client's control channel traffic.
+	 * <p>
+	 * When the control connection fails, the trace is dumped to the
+	 * {@link FTPLog} at the WARN level. A <code>null</code> trace, the
+	 * default, disables tracing.
+	 * @param trace the trace or <code>null</code>
+	 */
+	public void setWireTrace(FTPWireTrace trace) {
+		getInterface().setWireTrace(trace);
+	}
+	public FTPWireTrace getWireTrace() {
+		return getInterface().getWireTrace();
+	}
+	
+	/**
+	 * Gets the number of commands, by command name, that were not sent
+	 * because the client knew they would change nothing on the server,
+	 * such as a TYPE for the type already in use or a PWD while the
+	 * current directory is known. Each one is a round trip saved.
+	 * @return the counts
+	 */
+	public Map<String, Long> getElidedCommandCounts() {
+		return getInterface().getElidedCommandCounts();
+	}
+	
+	/**
+	 * Sets the cache that directory listings are kept in, see
+	 * {@link FTPListingCache}. Listings are not cached unless a cache is set.
+	 * @param cache the cache or <code>null</code>
+	 */
+	public void setListingCache(FTPListingCache cache) {
+		listingCache = cache;
+	}
+	public FTPListingCache getListingCache() {
+		return listingCache;
+	}
+	
+	/**
+	 * Sets the cache that file statuses are kept in, see {@link FTPStatusCache}.
+	 * Statuses are not cached unless a cache is set.
+	 * @param cache the cache or <code>null</code>
+	 */
+	public void setStatusCache(FTPStatusCache cache) {
+		statusCache = cache;
+	}
+	public FTPStatusCache getStatusCache() {
+		return statusCache;
+	}
+	
+	/**
+	 * Sets the cache that the server's capabilities are looked up in when
+	 * logging in and stored in after FEAT. A <code>null</code> cache, the
+	 * default, makes every login ask the server. Clients that connect to the
+	 * same servers may share {@link FTPCapabilityCache#getDefault()}.
+	 * @param cache the cache or <code>null</code>
+	 */
+	public void setCapabilityCache(FTPCapabilityCache cache) {
+		getInterface().setCapabilityCache(cache);
+	}
+	public FTPCapabilityCache getCapabilityCache() {
+		return getInterface().getCapabilityCache();
+	}
+	
 	/**
 	 * Queues a data command to retrieve a file denoted by the file.
 	 * <p>
@@ -146,7 +462,241 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFutureData<FTPFile> getFile(FTPObject file) throws IOException {
-		return queueDataCommand(FTPTransformation.FILE_TRANSFORMATION, new DownloadCommandRetrieveFile(file), file);
+		return queueCoalescedRead("RETR", FTPTransformation.FILE_TRANSFORMATION, new DownloadCommandRetrieveFile(file), file, getFTPType(file));
+	}
+	
+	/**
+	 * Queues a data command to retrieve a file denoted by the file
+	 * and stream its contents into the provided sink.
+	 * <p>
+	 * The data is written to the sink as it arrives from the data
+	 * channel using a fixed size buffer, so the file is never held
+	 * in memory. The result of the returned {@link FTPFuture} carries
+	 * no data, only the number of bytes transferred. The sink is not
+	 * closed when the transfer completes.
+	 * @param file the file to retrieve
+	 * @param sink the channel to write the file to
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture getFile(FTPObject file, WritableByteChannel sink) throws IOException {
+		if (sink == null) throw new IllegalArgumentException();
+		return queueFileCommand(new DownloadCommandRetrieveFile(file, sink), file);
+	}
+	
+	/**
+	 * Queues a data command to retrieve a file denoted by the file
+	 * and stream its contents into the provided stream.
+	 * @param file the file to retrieve
+	 * @param sink the stream to write the file to
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #getFile(FTPObject, WritableByteChannel)
+	 */
+	public FTPFuture getFile(FTPObject file, OutputStream sink) throws IOException {
+		if (sink == null) throw new IllegalArgumentException();
+		return getFile(file, Channels.newChannel(sink));
+	}
+	
+	/**
+	 * Queues a data command to retrieve a file denoted by the file
+	 * straight into the provided buffer.
+	 * <p>
+	 * The data is read from the data channel into the buffer without any
+	 * intermediate copy, starting at the buffer's position, and the position
+	 * is advanced past the received bytes. At most <code>target.remaining()</code>
+	 * bytes are retrieved; if the file is larger, the command fails. The result of the returned {@link FTPFuture} carries
+	 * no data, only the number of bytes transferred. Reusing the same direct
+	 * buffer for many transfers avoids allocating per transfer.
+	 * @param file the file to retrieve
+	 * @param target the buffer to read the file into
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture getFile(FTPObject file, ByteBuffer target) throws IOException {
+		if (target == null) throw new IllegalArgumentException();
+		return queueFileCommand(new DownloadCommandRetrieveFile(file, target), file);
+	}
+	
+	/**
+	 * Queues a data command to retrieve a file denoted by the file
+	 * into the provided local file.
+	 * <p>
+	 * The local file is created or truncated when the transfer starts and
+	 * is filled directly from the data channel with
+	 * <code>FileChannel.transferFrom</code>, bypassing user-space buffers
+	 * where the operating system allows it.
+	 * @param file the file to retrieve
+	 * @param target the local file to write to
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture getFile(FTPObject file, Path target) throws IOException {
+		return queueFileCommand(new DownloadCommandRetrieveFile(file, target), file);
+	}
+	
+	/**
+	 * Queues a data command to retrieve <code>length</code> bytes of a file
+	 * denoted by the file starting at <code>offset</code> and write them into
+	 * the provided local file at the same offset.
+	 * <p>
+	 * The transfer is always made in binary mode and uses the REST command,
+	 * so the server must support stream mode restarts. The rest of the local
+	 * file is left untouched, which allows several ranges of the same file to
+	 * be retrieved concurrently over different connections.
+	 * <p>
+	 * The offset must not be beyond the end of the local file. The command
+	 * fails unless exactly <code>length</code> bytes are written.
+	 * @param file the file to retrieve
+	 * @param target the local file to write to
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or <code>-1</code> for the rest of the file
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see SegmentedDownload
+	 */
+	public FTPFuture getFileRange(FTPObject file, Path target, long offset, long length) throws IOException {
+		if (offset < 0 || offset > (Files.exists(target) ? Files.size(target) : 0)) throw new IllegalArgumentException();
+		return queueFileCommand(new ChainedCommand(new TextCommandRestart(offset), new DownloadCommandRetrieveFile(file, target, offset, length)), FTPTypeDecider.BINARY);
+	}
+	
+	/**
+	 * Queues a data command that resumes an interrupted retrieval of a file
+	 * denoted by the file into the provided local file.
+	 * <p>
+	 * The bytes already present in the local file are treated as committed.
+	 * If the server supports SIZE, the remote size is compared with the local
+	 * size first: an equal size completes immediately, and a larger local file
+	 * is retrieved again from the start. Otherwise the retrieval continues with
+	 * REST at the end of the local file, in binary mode.
+	 * <p>
+	 * This method blocks until the remote size is known. The transferred byte
+	 * count of the result, including a failed result, is the number of bytes
+	 * appended to the local file by this call.
+	 * @param file the file to retrieve
+	 * @param target the local, possibly partial, file
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture resumeFile(FTPObject file, Path target) throws IOException {
+		long local = Files.exists(target) ? Files.size(target) : 0;
+		long remote = getRemoteSize(file);
+		
+		if (remote >= 0 && local == remote) return completedFuture(new FTPResult(true, null, 0));
+		if (local == 0 || remote >= 0 && local > remote) return queueFileCommand(new DownloadCommandRetrieveFile(file, target), FTPTypeDecider.BINARY);
+		return getFileRange(file, target, local, -1);
+	}
+	
+	/**
+	 * Queues a data command that resumes an interrupted store of the provided
+	 * local file into a file denoted by the file.
+	 * <p>
+	 * The remote size, requested with SIZE, is taken as the number of bytes the
+	 * server has committed. An equal size completes immediately, and a larger or
+	 * unknown remote size stores the whole file again. Otherwise the rest of the
+	 * local file is sent with REST and STOR if the server supports stream mode
+	 * restarts, or with APPE if it does not, in binary mode.
+	 * <p>
+	 * This method blocks until the remote size is known.
+	 * @param file the file to write to
+	 * @param source the local file to upload
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture resumeWriteFile(FTPObject file, Path source) throws IOException {
+		long local = Files.size(source);
+		long remote = getRemoteSize(file);
+		
+		if (remote == local) return completedFuture(new FTPResult(true, null, 0));
+		if (remote <= 0 || remote > local) return writeFileRange(file, source, 0, -1);
+		if (getInterface().isFeatureSupported(Feature.RESTART)) return writeFileRange(file, source, remote, -1);
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, source, remote, -1), FTPTypeDecider.BINARY), file);
+	}
+	
+	/**
+	 * Gets the size of the file denoted by the file, blocking until it is known.
+	 * @param file the file to size
+	 * @return the size, or <code>-1</code> if it is unknown
+	 * @throws IOException
+	 */
+	private long getRemoteSize(FTPObject file) throws IOException {
+		if (!getInterface().isFeatureSupported(Feature.FILE_SIZE)) return -1;
+		Long size = getFileSize(file).getData();
+		return size != null ? size : -1;
+	}
+	
+	/**
+	 * Creates a {@link FTPFuture} that already holds the provided result
+	 * and is never queued.
+	 * @param result the result
+	 * @return a completed ftp future
+	 */
+	protected FTPFuture completedFuture(FTPResult result) {
+		FTPFuture future = new FTPFuture(this, getInterface(), null);
+		future.setResult(result);
+		return future;
+	}
+	
+	/**
+	 * Queues a command to retrieve the size of the file denoted by the file.
+	 * <p>
+	 * The size is requested in binary mode and therefore is the exact
+	 * number of bytes a binary retrieve would transfer. The server must
+	 * support the SIZE command, see {@link FTPInterface.Feature#FILE_SIZE}.
+	 * @param file the file to size
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFutureData<Long> getFileSize(FTPObject file) throws IOException {
+		return wrapData(FTPTransformation.NUMBER_TRANSFORMATION, queueCommand(new ChainedCommand(new TextCommandType(FTPTypeDecider.BINARY), new TextCommandSize(file))));
+	}
+	
+	/**
+	 * Queues a command to retrieve the metadata of the file denoted by the
+	 * file: whether it exists, and its type, size and modification time.
+	 * <p>
+	 * MLST is used if the server supports it. Otherwise SIZE, in binary
+	 * mode, and MDTM are used as far as the server supports them, which
+	 * report no type for directories. The data is <code>null</code> if the
+	 * server supports none of these commands or answers with an error other
+	 * than that the file does not exist.
+	 * <p>
+	 * If a {@link FTPStatusCache} is set and the path is absolute, a cached
+	 * status is returned without contacting the server.
+	 * @param file the file to retrieve the metadata of
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFutureData<FTPFileStatus> getFileStatus(FTPObject file) throws IOException {
+		final StatusRequest request = new StatusRequest(new FTPObject[] { file });
+		return new FTPFutureData<FTPFileStatus>(request.future) {
+			@Override
+			protected FTPFileStatus formData(byte[] result) throws Exception {
+				return request.complete(result)[0];
+			}
+		};
+	}
+	
+	/**
+	 * Queues a command to retrieve the metadata of several files at once.
+	 * <p>
+	 * The commands for every file that is not cached are written back to
+	 * back, so the whole batch costs a single round trip. The data holds
+	 * the status of each file in the order of the files, or <code>null</code>
+	 * for a file whose metadata could not be retrieved.
+	 * @param files the files to retrieve the metadata of
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #getFileStatus(FTPObject)
+	 */
+	public FTPFutureData<FTPFileStatus[]> getFileStatuses(FTPObject... files) throws IOException {
+		final StatusRequest request = new StatusRequest(files);
+		return new FTPFutureData<FTPFileStatus[]>(request.future) {
+			@Override
+			protected FTPFileStatus[] formData(byte[] result) throws Exception {
+				return request.complete(result);
+			}
+		};
 	}
 	
 	/**
@@ -160,7 +710,7 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture writeFile(FTPObject file, FTPFile data) throws IOException {
-		return queueFileCommand(new UploadCommandFile(FileAction.WRITE, file, data), file);
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.WRITE, file, data), file), file);
 	}
 
 	/**
@@ -174,7 +724,115 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture appendFile(FTPObject file, FTPFile data) throws IOException {
-		return queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, data), file);
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, data), file), file);
+	}
+	
+	/**
+	 * Queues a data command to write to a file denoted by the file
+	 * with data pulled from the provided channel.
+	 * <p>
+	 * The channel is read in bounded chunks as the data is uploaded,
+	 * so payloads of large or unknown length never need to be held in
+	 * memory. The channel is not closed when the transfer completes.
+	 * @param file the file to write to
+	 * @param source the channel to read the data from
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture writeFile(FTPObject file, ReadableByteChannel source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.WRITE, file, source), file), file);
+	}
+	
+	/**
+	 * Queues a data command to write to a file denoted by the file
+	 * with data pulled from the provided stream.
+	 * @param file the file to write to
+	 * @param source the stream to read the data from
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #writeFile(FTPObject, ReadableByteChannel)
+	 */
+	public FTPFuture writeFile(FTPObject file, InputStream source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.WRITE, file, source), file), file);
+	}
+	
+	/**
+	 * Queues a data command to write to a file denoted by the file
+	 * with the contents of the provided local file.
+	 * <p>
+	 * The local file is opened when the upload starts and closed
+	 * when it finishes. Its contents are sent with
+	 * <code>FileChannel.transferTo</code>, bypassing user-space buffers
+	 * where the operating system allows it.
+	 * @param file the file to write to
+	 * @param source the local file to upload
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture writeFile(FTPObject file, Path source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.WRITE, file, source), file), file);
+	}
+	
+	/**
+	 * Queues a data command to write <code>length</code> bytes of the provided
+	 * local file starting at <code>offset</code> to the same offset of a file
+	 * denoted by the file.
+	 * <p>
+	 * The transfer is always made in binary mode. A range with a non-zero offset
+	 * is written with REST before STOR, so the server must support stream mode
+	 * restarts, see {@link FTPInterface.Feature#RESTART}. A range at offset zero is
+	 * written with a plain STOR, which truncates the remote file.
+	 * @param file the file to write to
+	 * @param source the local file to upload
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or <code>-1</code> for the rest of the file
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see SegmentedUpload
+	 */
+	public FTPFuture writeFileRange(FTPObject file, Path source, long offset, long length) throws IOException {
+		Command command = new UploadCommandFile(FileAction.WRITE, file, source, offset, length);
+		if (offset > 0) command = new ChainedCommand(new TextCommandRestart(offset), command);
+		return invalidateCaches(queueFileCommand(command, FTPTypeDecider.BINARY), file);
+	}
+	
+	/**
+	 * Queues a data command to append to a file denoted by the file
+	 * with data pulled from the provided channel.
+	 * @param file the file to append to
+	 * @param source the channel to read the data from
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #writeFile(FTPObject, ReadableByteChannel)
+	 */
+	public FTPFuture appendFile(FTPObject file, ReadableByteChannel source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, source), file), file);
+	}
+	
+	/**
+	 * Queues a data command to append to a file denoted by the file
+	 * with data pulled from the provided stream.
+	 * @param file the file to append to
+	 * @param source the stream to read the data from
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #writeFile(FTPObject, ReadableByteChannel)
+	 */
+	public FTPFuture appendFile(FTPObject file, InputStream source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, source), file), file);
+	}
+	
+	/**
+	 * Queues a data command to append the contents of the provided
+	 * local file to a file denoted by the file.
+	 * @param file the file to append to
+	 * @param source the local file to upload
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 * @see #writeFile(FTPObject, Path)
+	 */
+	public FTPFuture appendFile(FTPObject file, Path source) throws IOException {
+		return invalidateCaches(queueFileCommand(new UploadCommandFile(FileAction.APPEND, file, source), file), file);
 	}
 	
 	/**
@@ -184,7 +842,7 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture deleteFile(FTPObject file) throws IOException {
-		return queueCommand(new TextCommandDeleteFile(file));
+		return invalidateCaches(queueCommand(new TextCommandDeleteFile(file)), file);
 	}
 	
 	/**
@@ -194,14 +852,74 @@ public abstract class FTPClient {
 	 * This method returns a {@link FTPFutureData} object of the
 	 * generic {@link FTPEntity}<code>[]</code> which represents the command and the
 	 * list being retrieved.
+	 * <p>
+	 * If a {@link FTPListingCache} is set and the directory is absolute, a
+	 * cached listing is returned without contacting the server.
 	 * @param directory the directory to list
 	 * @return a ftp future representing the command
 	 * @throws IOException
 	 */
 	public FTPFutureData<FTPObject[]> getFileList(FTPObject directory) throws IOException {
-		return queueDataCommand(FTPTransformation.FILELIST_TRANSFORMATION, new DownloadCommandList(directory));
+		final FTPListingCache cache = listingCache;
+		if (cache == null || directory == null || !directory.getPath().startsWith("/"))
+			return queueCoalescedRead("LIST", FTPTransformation.getListingTransformation(directory), new DownloadCommandList(directory), directory, getFTPType(null));
+		
+		FTPInterface inter = getInterface();
+		final String host = inter.getHost();
+		final int port = inter.getPort();
+		final String path = directory.getPath();
+		final FTPObject[] cached = cache.get(host, port, path);
+		if (cached != null) {
+			return new FTPFutureData<FTPObject[]>(completedFuture(FTPResult.SUCCEEDED)) {
+				{
+					data = cached;
+					set = true;
+				}
+				@Override
+				protected FTPObject[] formData(byte[] result) throws Exception {
+					return cached;
+				}
+			};
+		}
+		
+		// taken before queueing, so a listing that may predate a write is not cached
+		final long stamp = cache.getStamp();
+		final FTPTransformation<FTPObject[]> listing = FTPTransformation.getListingTransformation(directory);
+		return queueCoalescedRead("LIST", new FTPTransformation<FTPObject[]>() {
+			@Override
+			public FTPObject[] transform(FTPInterface clientInterface, byte[] data) throws Exception {
+				FTPObject[] objects = listing.transform(clientInterface, data);
+				cache.put(host, port, path, objects, data.length, stamp);
+				return objects;
+			}
+			@Override
+			public FTPObject[] copy(FTPObject[] data) {
+				return data.clone();
+			}
+		}, new DownloadCommandList(directory), directory, getFTPType(null));
 	}
 
+	/**
+	 * Queues a data command to retrieve a list of the objects within
+	 * the directory denoted by the directory and hand them to the
+	 * provided handler as they arrive.
+	 * <p>
+	 * The listing is parsed while it is transferred, so even directories
+	 * with millions of entries are never held in memory. The handler is
+	 * called on a transfer worker of the client and must not wait for
+	 * other commands of the client. The result of the returned
+	 * {@link FTPFuture} carries no data, only the number of bytes
+	 * transferred. Listings retrieved this way are not cached.
+	 * @param directory the directory to list
+	 * @param handler the handler that receives the entries
+	 * @return a ftp future representing the command
+	 * @throws IOException
+	 */
+	public FTPFuture getFileList(FTPObject directory, FTPListingHandler handler) throws IOException {
+		if (handler == null) throw new IllegalArgumentException();
+		return queueFileCommand(new DownloadCommandList(directory, handler));
+	}
+	
 	/**
 	 * Queues a data command to retrieve the current directory
 	 * <p>
@@ -224,7 +942,24 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture changeWorkingDirectory(FTPObject directory) throws IOException {
-		return queueCommand(new ChainedCommand(false, new TextCommandDirectory(DirectoryAction.CHANGE, directory), new TextCommandDirectory()));
+		pendingDirectoryChanges.incrementAndGet();
+		FTPFuture future;
+		try {
+			future = queueCommand(new ChainedCommand(false, new TextCommandDirectory(DirectoryAction.CHANGE, directory), new TextCommandDirectory()));
+		} catch (IOException e) {
+			pendingDirectoryChanges.decrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			pendingDirectoryChanges.decrementAndGet();
+			throw e;
+		}
+		future.whenComplete(new Runnable() {
+			@Override
+			public void run() {
+				pendingDirectoryChanges.decrementAndGet();
+			}
+		});
+		return future;
 	}
 
 	/**
@@ -234,7 +969,7 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture makeDirectory(FTPObject directory) throws IOException {
-		return queueCommand(new ChainedCommand(false, new TextCommandDirectory(DirectoryAction.MAKE, directory), new TextCommandDirectory()));
+		return invalidateCaches(queueCommand(new TextCommandDirectory(DirectoryAction.MAKE, directory)), directory);
 	}
 	
 	/**
@@ -248,7 +983,7 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture deleteDirectory(FTPObject directory) throws IOException {
-		return queueCommand(new ChainedCommand(false, new TextCommandDirectory(DirectoryAction.REMOVE, directory), new TextCommandDirectory()));
+		return invalidateCaches(queueCommand(new TextCommandDirectory(DirectoryAction.REMOVE, directory)), directory);
 	}
 
 	/**
@@ -261,6 +996,36 @@ public abstract class FTPClient {
 	 */
 	public abstract FTPFuture completelyDeleteDirectory(FTPObject directory) throws IOException;
 	
+	/**
+	 * Removes the cached listings and statuses that a change to the target
+	 * may affect. This is called after the command that changes the target
+	 * has been queued, so that a listing or status requested in between is
+	 * not cached. A relative target is resolved against the current
+	 * directory, unless a directory change queued before it has not
+	 * completed yet, in which case everything is removed.
+	 * @param future the future of the command
+	 * @param target the file or directory changed
+	 * @return the future
+	 */
+	private FTPFuture invalidateCaches(FTPFuture future, FTPObject target) {
+		FTPListingCache listings = listingCache;
+		FTPStatusCache statuses = statusCache;
+		if (listings == null && statuses == null) return future;
+		
+		FTPInterface inter = getInterface();
+		FTPObject absolute = target;
+		if (!target.getPath().startsWith("/") && inter.isCurrentDirectoryKnown() && pendingDirectoryChanges.get() == 0) absolute = new FTPObject(inter.getCurrentDirectory(), target);
+		String path = absolute.getPath();
+		if (path.startsWith("/")) {
+			if (listings != null) listings.invalidate(inter.getHost(), inter.getPort(), path);
+			if (statuses != null) statuses.invalidate(inter.getHost(), inter.getPort(), path);
+		} else {
+			if (listings != null) listings.invalidateAll();
+			if (statuses != null) statuses.invalidateAll();
+		}
+		return future;
+	}
+	
 	/**
 	 * Queues a data command with the specified {@link FTPTransformation} function.
 	 * <p>
@@ -288,7 +1053,64 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public <T> FTPFutureData<T> queueDataCommand(final FTPTransformation<T> function, Command command, FTPObject file) throws IOException {
-		return new FTPFutureData<T>(queueFileCommand(command, file)) {
+		return wrapData(function, queueFileCommand(command, file));
+	}
+	
+	/**
+	 * Queues a read, or attaches to an identical read that is still in
+	 * flight instead.
+	 * <p>
+	 * Reads are identical if they use the same command, path and type and
+	 * were queued in the same generation, that is, with no other command
+	 * queued between them. Every caller gets its own {@link FTPFutureData}
+	 * with its own copy of the data, which is formed once. Cancelling it
+	 * only detaches that caller; the read itself is cancelled once every
+	 * caller has cancelled.
+	 * @param verb the name of the read command
+	 * @param function the transformation to use
+	 * @param command the command to queue if no identical read is in flight
+	 * @param target the file or directory read
+	 * @param type the type character
+	 * @return a ftp future representing the read
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> FTPFutureData<T> queueCoalescedRead(String verb, FTPTransformation<T> function, Command command, FTPObject target, char type) throws IOException {
+		if (!getInterface().isConnected()) throw new IllegalStateException("conn closed");
+		
+		readLock.lock();
+		try {
+			final ReadKey key = new ReadKey(verb, type, target == null ? null : target.getPath(), readGeneration.get());
+			InflightRead<T> inflight = (InflightRead<T>) inflightReads.get(key);
+			if (inflight != null) {
+				if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "attached to in-flight " + verb + " " + key.path);
+				return inflight.attach();
+			}
+			
+			FTPFuture future = queueCommandUnsafe(new ChainedCommand(new Command[] { new TextCommandType(type), getInterface().getModeCommand(), command }));
+			final InflightRead<T> read = new InflightRead<T>(key, function, future);
+			inflightReads.put(key, read);
+			future.whenComplete(new Runnable() {
+				@Override
+				public void run() {
+					inflightReads.remove(key, read);
+				}
+			});
+			return read.attach();
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Wraps a queued future in a {@link FTPFutureData} that applies the specified
+	 * {@link FTPTransformation} function to its result.
+	 * @param function the transformation to use
+	 * @param future the future to wrap
+	 * @return a ftp future representing the data command
+	 */
+	protected <T> FTPFutureData<T> wrapData(final FTPTransformation<T> function, FTPFuture future) {
+		return new FTPFutureData<T>(future) {
 			@Override
 			protected T formData(byte[] result) throws Exception {
 				return function.transform(getInterface(), result);
@@ -315,7 +1137,19 @@ public abstract class FTPClient {
 	 * @throws IOException
 	 */
 	public FTPFuture queueFileCommand(Command command, FTPObject file) throws IOException {
-		return queueCommand(new ChainedCommand(new Command[] { new TextCommandType(getFTPType(file)), getInterface().getModeCommand(), command }));
+		return queueFileCommand(command, getFTPType(file));
+	}
+	
+	/**
+	 * Queues a file command using the specified transmission type.
+	 * @param command the command to queue
+	 * @param type the type character
+	 * @return a ftp future representing the file command
+	 * @throws IOException
+	 * @see FTPTypeDecider
+	 */
+	public FTPFuture queueFileCommand(Command command, char type) throws IOException {
+		return queueCommand(new ChainedCommand(new Command[] { new TextCommandType(type), getInterface().getModeCommand(), command }));
 	}
 
 	/**
@@ -355,4 +1189,186 @@ public abstract class FTPClient {
 	}
 
 	protected abstract String getUniqueString();
+	
+	/**
+	 * A request for the metadata of files, which is answered from the
+	 * status cache as far as possible.
+	 */
+	private final class StatusRequest {
+		private final FTPObject[] files;
+		private final FTPFileStatus[] statuses;
+		private final FTPStatusCache cache = statusCache;
+		private final String host;
+		private final int port;
+		private final long stamp;
+		private final FTPFuture future;
+		
+		public StatusRequest(FTPObject[] files) throws IOException {
+			if (files == null || files.length == 0) throw new IllegalArgumentException();
+			FTPInterface inter = getInterface();
+			this.files = files.clone();
+			this.statuses = new FTPFileStatus[files.length];
+			this.host = inter.getHost();
+			this.port = inter.getPort();
+			// taken before queueing, so a status that may predate a write is not cached
+			this.stamp = cache == null ? 0 : cache.getStamp();
+			
+			List<FTPObject> pending = new ArrayList<FTPObject>();
+			for (int i = 0; i < files.length; i++) {
+				if (files[i] == null) throw new IllegalArgumentException();
+				if (isCacheable(files[i])) statuses[i] = cache.get(host, port, files[i].getPath());
+				if (statuses[i] == null) pending.add(files[i]);
+			}
+			
+			Set<Feature> features = EnumSet.noneOf(Feature.class);
+			if (inter.isFeatureSupported(Feature.METADATA_LIST)) features.add(Feature.METADATA_LIST);
+			else {
+				if (inter.isFeatureSupported(Feature.FILE_SIZE)) features.add(Feature.FILE_SIZE);
+				if (inter.isFeatureSupported(Feature.MODIFICATION_TIME)) features.add(Feature.MODIFICATION_TIME);
+			}
+			
+			if (pending.isEmpty()) this.future = completedFuture(new FTPResult(true, new byte[0]));
+			else if (features.isEmpty()) this.future = completedFuture(FTPResult.FAILED);
+			else {
+				Command command = new TextCommandStatus(features, pending.toArray(new FTPObject[pending.size()]));
+				if (features.contains(Feature.FILE_SIZE)) command = new ChainedCommand(new TextCommandType(FTPTypeDecider.BINARY), command);
+				this.future = queueCommand(command);
+			}
+		}
+		
+		/**
+		 * Fills in the statuses that were not cached from the result data
+		 * of a {@link TextCommandStatus} and caches them.
+		 * @param data the result data
+		 * @return the statuses
+		 */
+		public FTPFileStatus[] complete(byte[] data) {
+			String[] lines = new String(data, FTPFiletype.ASCII.getCharset()).split("\n");
+			int line = 0;
+			for (int i = 0; i < files.length && line < lines.length; i++) {
+				if (statuses[i] != null) continue;
+				
+				String status = lines[line++];
+				if (status.startsWith("+")) statuses[i] = FTPFileStatus.parseFacts(files[i], status.substring(1));
+				else if (status.startsWith("-")) statuses[i] = FTPFileStatus.missing(files[i]);
+				if (statuses[i] != null && isCacheable(files[i])) cache.put(host, port, statuses[i], stamp);
+			}
+			return statuses;
+		}
+		
+		private boolean isCacheable(FTPObject file) {
+			return cache != null && file.getPath().startsWith("/");
+		}
+	}
+	
+	/**
+	 * A coalesced read and the callers attached to it.
+	 */
+	private final class InflightRead<T> {
+		private final ReadKey key;
+		private final FTPTransformation<T> function;
+		private final FTPFuture future;
+		private final FTPFutureData<T> shared;
+		
+		/**
+		 * The number of callers that have not cancelled. Guarded by the read lock.
+		 */
+		private int attached = 0;
+		
+		public InflightRead(ReadKey key, FTPTransformation<T> function, FTPFuture future) {
+			this.key = key;
+			this.function = function;
+			this.future = future;
+			this.shared = wrapData(function, future);
+		}
+		
+		/**
+		 * Attaches a caller. Must be called while holding the read lock.
+		 * @return the caller's view of the read
+		 */
+		public FTPFutureData<T> attach() {
+			attached++;
+			final FTPFuture view = new FTPFuture(FTPClient.this, getInterface(), null);
+			future.whenComplete(new Runnable() {
+				@Override
+				public void run() {
+					FTPResult result;
+					try {
+						result = future.getResult();
+					} catch (IOException e) {
+						result = FTPResult.FAILED;
+					}
+					try {
+						if (!view.isResultSet()) view.setResult(result);
+					} catch (IllegalStateException e) {
+						// the caller cancelled the view meanwhile
+					}
+				}
+			});
+			view.whenComplete(new Runnable() {
+				@Override
+				public void run() {
+					if (view.isCancelled() || view.isTimedOut()) detach();
+				}
+			});
+			
+			return new FTPFutureData<T>(view) {
+				@Override
+				protected T formData(byte[] result) throws Exception {
+					T data = shared.getData();
+					return data == null ? null : function.copy(data);
+				}
+			};
+		}
+		
+		private void detach() {
+			boolean last;
+			readLock.lock();
+			try {
+				last = --attached == 0;
+				if (last) inflightReads.remove(key, this);
+			} finally {
+				readLock.unlock();
+			}
+			
+			if (!last) return;
+			try {
+				future.cancel();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+	}
+	
+	/**
+	 * The identity of a coalesced read.
+	 */
+	private static final class ReadKey {
+		private final String verb;
+		private final char type;
+		private final String path;
+		private final long generation;
+		
+		public ReadKey(String verb, char type, String path, long generation) {
+			this.verb = verb;
+			this.type = type;
+			this.path = path;
+			this.generation = generation;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ReadKey)) return false;
+			ReadKey other = (ReadKey) obj;
+			return verb.equals(other.verb) && type == other.type && generation == other.generation && (path == null ? other.path == null : path.equals(other.path));
+		}
+		
+		@Override
+		public int hashCode() {
+			int hash = verb.hashCode();
+			hash = 31 * hash + type;
+			hash = 31 * hash + (path == null ? 0 : path.hashCode());
+			return 31 * hash + (int) (generation ^ generation >>> 32);
+		}
+	}
 }
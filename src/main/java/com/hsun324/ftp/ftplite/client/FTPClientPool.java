@@ -0,0 +1,614 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.client.FTPInterface.QueuePolicy;
+import com.hsun324.ftp.ftplite.client.SocketFTPClient.ExecutionMode;
+
+/**
+ * A pool of logged in {@link SocketFTPClient} sessions.
+ * <p>
+ * Sessions are kept per host, port, user and password, so a session is
+ * only lent to borrowers that supply the password it was logged in with.
+ * The pool compares passwords by a salted digest. A borrowed session is
+ * logged in and ready for commands; once released it is kept idle for
+ * the next borrower instead of being closed. Idle sessions are checked
+ * with NOOP before they are lent out after being idle for a while and
+ * periodically in the background, and are closed once they have been idle
+ * for longer than the idle timeout, keeping at least the minimum number
+ * of idle sessions open.
+ * <p>
+ * A released session is only kept if it has no commands left queued or in
+ * flight and its settings, like the pipeline window, timeouts, caches,
+ * transfer mode and queue policy, are the ones it was opened with;
+ * otherwise it is closed. Its working directory is changed back to the
+ * login directory before it is kept. What the next borrower shares with
+ * the previous one is the logged in session itself, the transfer type,
+ * which commands set as they need it, and the discovered capabilities.
+ * <p>
+ * The <code>execute</code> methods borrow a session, run an operation
+ * against it and return it to the pool, so callers never handle sessions
+ * themselves.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPClientPool {
+	/**
+	 * An operation run against a pooled session.
+	 * @param <T> the operation result type
+	 */
+	public static interface Operation<T> {
+		/**
+		 * Runs this operation with the provided client.
+		 * <p>
+		 * The client must not be used after this method returns.
+		 * @param client the pooled client
+		 * @return the operation result
+		 * @throws IOException
+		 */
+		public T execute(FTPClient client) throws IOException;
+	}
+
+	/**
+	 * Default minimum number of idle sessions per key.
+	 */
+	public static final int DEFAULT_MIN_IDLE = 0;
+	/**
+	 * Default maximum number of sessions per key.
+	 */
+	public static final int DEFAULT_MAX_TOTAL = 8;
+	/**
+	 * Default time in milliseconds a session may stay idle before being closed.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+	/**
+	 * Default time in milliseconds a borrower waits for a session.
+	 */
+	public static final long DEFAULT_BORROW_TIMEOUT = 30 * 1000;
+	/**
+	 * Default time in milliseconds a session may stay idle before it is checked with NOOP.
+	 */
+	public static final long DEFAULT_VALIDATION_INTERVAL = 30 * 1000;
+
+	/**
+	 * The salt of the password digests in the pool keys.
+	 */
+	private final byte[] salt = new byte[16];
+
+	private final ConcurrentMap<PoolKey, Partition> partitions = new ConcurrentHashMap<PoolKey, Partition>();
+	private final ConcurrentMap<FTPClient, PooledSession> borrowed = new ConcurrentHashMap<FTPClient, PooledSession>();
+
+	private final ScheduledExecutorService evictor;
+
+	private volatile int minIdle = DEFAULT_MIN_IDLE;
+	private volatile int maxTotal = DEFAULT_MAX_TOTAL;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+	private volatile long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+	private volatile ExecutionMode executionMode = ExecutionMode.PLATFORM;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a <code>FTPClientPool</code> with the default sizes and timeouts.
+	 */
+	public FTPClientPool() {
+		new SecureRandom().nextBytes(salt);
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FTPL-POOL-EVICTOR");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evict();
+			}
+		}, DEFAULT_VALIDATION_INTERVAL, DEFAULT_VALIDATION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the minimum number of idle sessions kept open for each key
+	 * that has been used.
+	 * @param minIdle the minimum idle count
+	 */
+	public void setMinIdle(int minIdle) {
+		if (minIdle < 0) throw new IllegalArgumentException();
+		this.minIdle = minIdle;
+	}
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Sets the maximum number of sessions, borrowed and idle, for each key.
+	 * <p>
+	 * This only affects keys that have not been used yet.
+	 * @param maxTotal the maximum session count
+	 */
+	public void setMaxTotal(int maxTotal) {
+		if (maxTotal < 1) throw new IllegalArgumentException();
+		this.maxTotal = maxTotal;
+	}
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * Sets the time a session may stay idle before it is closed.
+	 * @param timeout the idle timeout
+	 * @param unit the unit of the timeout
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit) {
+		this.idleTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the maximum time a borrower waits for a session when
+	 * every session of its key is borrowed.
+	 * @param timeout the borrow timeout
+	 * @param unit the unit of the timeout
+	 */
+	public void setBorrowTimeout(long timeout, TimeUnit unit) {
+		this.borrowTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the time a session may stay idle before it is checked with
+	 * NOOP when it is borrowed.
+	 * @param interval the validation interval
+	 * @param unit the unit of the interval
+	 */
+	public void setValidationInterval(long interval, TimeUnit unit) {
+		this.validationInterval = unit.toMillis(interval);
+	}
+
+	/**
+	 * Sets the execution mode of sessions opened after this call.
+	 * @param mode the execution mode
+	 */
+	public void setExecutionMode(ExecutionMode mode) {
+		if (mode == null) throw new IllegalArgumentException();
+		this.executionMode = mode;
+	}
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Borrows a logged in session for the provided user on the provided
+	 * host using the default FTP port.
+	 * @param host address to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 * @return a logged in client
+	 * @throws IOException if no session could be obtained in time
+	 */
+	public FTPClient borrow(String host, String user, String password) throws IOException {
+		return borrow(host, SocketFTPClient.DEFAULT_FTP_SERVER_PORT, user, password);
+	}
+
+	/**
+	 * Borrows a logged in session for the provided user on the provided
+	 * host and port.
+	 * <p>
+	 * An idle session is reused if one is available. Otherwise a new session
+	 * is opened if the key has fewer than the maximum number of sessions, or
+	 * the call waits for a session to be released for up to the borrow timeout.
+	 * The session must be returned with <code>release</code> or
+	 * <code>invalidate</code>.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 * @return a logged in client
+	 * @throws IOException if no session could be obtained in time
+	 */
+	public FTPClient borrow(String host, int port, String user, String password) throws IOException {
+		if (closed) throw new IllegalStateException("pool closed");
+
+		Partition partition = getPartition(new PoolKey(host, port, user, digest(password)), password);
+		try {
+			if (!partition.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) throw new IOException("borrow timed out");
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+
+		try {
+			PooledSession session;
+			while ((session = partition.idle.pollFirst()) != null) {
+				if (System.currentTimeMillis() - session.lastUsed < validationInterval || validate(session)) break;
+				session.close();
+			}
+			if (session == null) session = partition.open();
+
+			borrowed.put(session.client, session);
+			return session.client;
+		} catch (IOException e) {
+			partition.permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			partition.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed session to the pool.
+	 * <p>
+	 * A session that is no longer connected, still has commands queued or
+	 * in flight or was reconfigured is closed instead. Otherwise its working
+	 * directory is changed back to the login directory, waiting for up to
+	 * the borrow timeout, before it is kept for the next borrower.
+	 * @param client the borrowed client
+	 */
+	public void release(FTPClient client) {
+		PooledSession session = borrowed.remove(client);
+		if (session == null) throw new IllegalArgumentException("client not borrowed from this pool");
+
+		try {
+			session.lastUsed = System.currentTimeMillis();
+			if (closed || !reset(session)) session.close();
+			else session.partition.idle.offerFirst(session);
+		} finally {
+			session.partition.permits.release();
+		}
+	}
+
+	/**
+	 * Closes a borrowed session instead of returning it to the pool.
+	 * @param client the borrowed client
+	 */
+	public void invalidate(FTPClient client) {
+		PooledSession session = borrowed.remove(client);
+		if (session == null) throw new IllegalArgumentException("client not borrowed from this pool");
+
+		session.close();
+		session.partition.permits.release();
+	}
+
+	/**
+	 * Runs the provided operation against a pooled session for the provided
+	 * user on the provided host using the default FTP port.
+	 * @param host address to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 * @param operation the operation to run
+	 * @return the operation result
+	 * @throws IOException
+	 * @see #execute(String, int, String, String, Operation)
+	 */
+	public <T> T execute(String host, String user, String password, Operation<T> operation) throws IOException {
+		return execute(host, SocketFTPClient.DEFAULT_FTP_SERVER_PORT, user, password, operation);
+	}
+
+	/**
+	 * Runs the provided operation against a pooled session for the provided
+	 * user on the provided host and port.
+	 * <p>
+	 * The session is returned to the pool when the operation returns, or
+	 * closed if the operation throws.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 * @param operation the operation to run
+	 * @return the operation result
+	 * @throws IOException
+	 */
+	public <T> T execute(String host, int port, String user, String password, Operation<T> operation) throws IOException {
+		FTPClient client = borrow(host, port, user, password);
+		boolean success = false;
+		try {
+			T result = operation.execute(client);
+			success = true;
+			return result;
+		} finally {
+			if (success) release(client);
+			else invalidate(client);
+		}
+	}
+
+	/**
+	 * Gets the number of idle sessions for the provided host, port and user.
+	 * @param host the host
+	 * @param port the port
+	 * @param user the user
+	 * @return the idle session count
+	 */
+	public int getIdleCount(String host, int port, String user) {
+		int count = 0;
+		for (Partition partition : partitions.values()) {
+			PoolKey key = partition.key;
+			if (key.host.equals(host) && key.port == port && (key.user == null ? user == null : key.user.equals(user))) count += partition.idle.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Closes every idle session and stops the background checks.
+	 * Borrowed sessions are closed when they are released.
+	 */
+	public void close() {
+		closed = true;
+		evictor.shutdownNow();
+		for (Partition partition : partitions.values()) {
+			PooledSession session;
+			while ((session = partition.idle.pollFirst()) != null) session.close();
+		}
+	}
+
+	/**
+	 * Creates the client for a new session. The client must not be connected yet.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @return a new client
+	 */
+	protected SocketFTPClient createClient(String host, int port) {
+		return new SocketFTPClient(host, port, executionMode);
+	}
+
+	private Partition getPartition(PoolKey key, String password) {
+		Partition partition = partitions.get(key);
+		if (partition == null) {
+			Partition created = new Partition(key, password, maxTotal);
+			partition = partitions.putIfAbsent(key, created);
+			if (partition == null) partition = created;
+		}
+		return partition;
+	}
+
+	/**
+	 * Gets the salted digest of a password that identifies it in the pool keys.
+	 * @param password the password
+	 * @return the digest
+	 */
+	private byte[] digest(String password) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			if (password != null) digest.update(password.getBytes(Charset.forName("UTF-8")));
+			else digest.update((byte) 0xFF);
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Restores the state a released session was opened with.
+	 * @param session the released session
+	 * @return whether the session may be kept
+	 */
+	private boolean reset(PooledSession session) {
+		SocketFTPClient client = session.client;
+		FTPInterface inter = client.getInterface();
+		if (!inter.isConnected() || client.getDispatcher().hasPending()) return false;
+		if (!session.settings.matches(client)) return false;
+
+		FTPObject home = session.loginDirectory;
+		if (home == null) return false;
+		if (inter.isCurrentDirectoryKnown() && inter.getCurrentDirectory().getPath().equals(home.getPath())) return true;
+		try {
+			FTPFuture future = client.changeWorkingDirectory(home);
+			return future.waitUntilResult(borrowTimeout, TimeUnit.MILLISECONDS) && future.getResult().isSuccessful();
+		} catch (IOException e) {
+			return false;
+		} catch (IllegalStateException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks an idle session with NOOP.
+	 * @param session the session to check
+	 * @return whether the session answered
+	 */
+	private boolean validate(PooledSession session) {
+		try {
+			if (!session.client.getInterface().isConnected()) return false;
+			FTPFuture future = session.client.noop();
+			if (!future.waitUntilResult(borrowTimeout, TimeUnit.MILLISECONDS)) return false;
+			if (!future.getResult().isSuccessful()) return false;
+			session.lastUsed = System.currentTimeMillis();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (IllegalStateException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Closes sessions that have been idle for too long, checks the remaining
+	 * idle sessions and opens sessions up to the minimum idle count.
+	 */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		for (Partition partition : partitions.values()) {
+			Iterator<PooledSession> iterator = partition.idle.descendingIterator();
+			while (iterator.hasNext()) {
+				PooledSession session = iterator.next();
+				if (!partition.idle.remove(session)) continue;
+
+				boolean expired = now - session.lastUsed > idleTimeout && partition.idle.size() >= minIdle;
+				if (expired || now - session.lastUsed >= validationInterval && !validate(session)) session.close();
+				else partition.idle.offerLast(session);
+			}
+
+			while (!closed && partition.idle.size() < minIdle && partition.permits.availablePermits() > partition.idle.size() && partition.permits.tryAcquire()) {
+				try {
+					partition.idle.offerFirst(partition.open());
+				} catch (IOException e) {
+					break;
+				} finally {
+					partition.permits.release();
+				}
+			}
+		}
+	}
+
+	private final class Partition {
+		private final PoolKey key;
+		private final Semaphore permits;
+		private final LinkedBlockingDeque<PooledSession> idle = new LinkedBlockingDeque<PooledSession>();
+		private final String password;
+
+		public Partition(PoolKey key, String password, int maxTotal) {
+			this.key = key;
+			this.password = password;
+			this.permits = new Semaphore(maxTotal, true);
+		}
+
+		/**
+		 * Opens and logs in a new session, waiting for the login for up
+		 * to the borrow timeout.
+		 * @return the new session
+		 * @throws IOException if the login failed or timed out
+		 */
+		public PooledSession open() throws IOException {
+			SocketFTPClient client = createClient(key.host, key.port);
+			FTPFuture login = client.connect(key.user, password);
+			if (!login.waitUntilResult(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				client.close();
+				throw new IOException("login timed out");
+			}
+			if (!login.getResult().isSuccessful()) {
+				client.close();
+				throw new IOException("login failed");
+			}
+			return new PooledSession(this, client);
+		}
+	}
+
+	private static final class PooledSession {
+		private final Partition partition;
+		private final SocketFTPClient client;
+		private final SessionSettings settings;
+		private final FTPObject loginDirectory;
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		public PooledSession(Partition partition, SocketFTPClient client) {
+			this.partition = partition;
+			this.client = client;
+			this.settings = new SessionSettings(client);
+			FTPInterface inter = client.getInterface();
+			this.loginDirectory = inter.isCurrentDirectoryKnown() ? inter.getCurrentDirectory() : null;
+		}
+
+		public void close() {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+	}
+
+	/**
+	 * The settings of a session when it was opened.
+	 */
+	private static final class SessionSettings {
+		private final int pipelineWindow;
+		private final int connectTimeout;
+		private final int readTimeout;
+		private final long commandTimeout;
+		private final long minimumThroughput;
+		private final long throughputPeriod;
+		private final int queueCapacity;
+		private final QueuePolicy queuePolicy;
+		private final Class<?> modeCommand;
+		private final FTPWireTrace wireTrace;
+		private final Executor callbackExecutor;
+		private final FTPListingCache listingCache;
+		private final FTPStatusCache statusCache;
+		private final FTPCapabilityCache capabilityCache;
+
+		public SessionSettings(SocketFTPClient client) {
+			FTPInterface inter = client.getInterface();
+			this.pipelineWindow = inter.getPipelineWindow();
+			this.connectTimeout = inter.getConnectTimeout();
+			this.readTimeout = inter.getReadTimeout();
+			this.commandTimeout = inter.getCommandTimeout();
+			this.minimumThroughput = inter.getMinimumThroughput();
+			this.throughputPeriod = inter.getThroughputPeriod();
+			this.queueCapacity = inter.getCommandQueueCapacity();
+			this.queuePolicy = inter.getQueuePolicy();
+			this.modeCommand = inter.getModeCommand().getClass();
+			this.wireTrace = inter.getWireTrace();
+			this.callbackExecutor = client.getCallbackExecutor();
+			this.listingCache = client.getListingCache();
+			this.statusCache = client.getStatusCache();
+			this.capabilityCache = inter.getCapabilityCache();
+		}
+
+		/**
+		 * Gets whether a client still has these settings.
+		 * @param client the client
+		 * @return whether the settings are unchanged
+		 */
+		public boolean matches(SocketFTPClient client) {
+			FTPInterface inter = client.getInterface();
+			return pipelineWindow == inter.getPipelineWindow()
+				&& connectTimeout == inter.getConnectTimeout()
+				&& readTimeout == inter.getReadTimeout()
+				&& commandTimeout == inter.getCommandTimeout()
+				&& minimumThroughput == inter.getMinimumThroughput()
+				&& throughputPeriod == inter.getThroughputPeriod()
+				&& queueCapacity == inter.getCommandQueueCapacity()
+				&& queuePolicy == inter.getQueuePolicy()
+				&& modeCommand == inter.getModeCommand().getClass()
+				&& wireTrace == inter.getWireTrace()
+				&& callbackExecutor == client.getCallbackExecutor()
+				&& listingCache == client.getListingCache()
+				&& statusCache == client.getStatusCache()
+				&& capabilityCache == inter.getCapabilityCache();
+		}
+	}
+
+	private static final class PoolKey {
+		private final String host;
+		private final int port;
+		private final String user;
+		private final byte[] password;
+
+		public PoolKey(String host, int port, String user, byte[] password) {
+			this.host = host;
+			this.port = port;
+			this.user = user;
+			this.password = password;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((host.hashCode() * 31 + port) * 31 + (user != null ? user.hashCode() : 0)) * 31 + Arrays.hashCode(password);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PoolKey)) return false;
+			PoolKey other = (PoolKey) obj;
+			return host.equals(other.host) && port == other.port && (user == null ? other.user == null : user.equals(other.user)) && MessageDigest.isEqual(password, other.password);
+		}
+	}
+}
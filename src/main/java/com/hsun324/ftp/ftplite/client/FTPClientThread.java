@@ -2,64 +2,61 @@ package com.hsun324.ftp.ftplite.client;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
-import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPLog;
 import com.hsun324.ftp.ftplite.FTPResponse;
-import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
 
 /**
- * A <code>Thread</code> that handles the execution of queued
- * commands.
+ * A <code>Runnable</code> that handles the execution of queued
+ * commands. It is run on a platform or virtual thread depending
+ * on the client's {@link SocketFTPClient.ExecutionMode}.
  * @author hsun324
  * @version 0.7
  */
-class FTPClientThread extends Thread {
-	/**
-	 * A <code>Pattern</code> that is used to determine whether a response is in FTP response format.
-	 */
-	private static final Pattern CONTROL_RESPONSE_PATTERN = Pattern.compile("([0-9]{3})([ -])(.*)");
-
-	
+class FTPClientThread implements Runnable {
 	private final FTPClient client;
 	private final FTPInterface inter;
-	
-	private final List<FTPFuture> queue;
+	private final FTPCommandDispatcher dispatcher;
 	
 	private InputStream inputStream = null;
-	private Reader reader = null;
-	
-	private final char[] buffer;
 	
 	/**
-	 * A buffer that holds previous lines in multiple line responses.
+	 * The decoder that turns control channel bytes into replies.
 	 */
-	private StringBuffer responseBuffer = new StringBuffer();
+	private final FTPResponseDecoder decoder;
 	
 	/**
 	 * Creates a <code>FTPStreamThread</code> with the standard size
-	 * character buffer.
+	 * byte buffer.
 	 * @param client The client this thread runs for
+	 * @param dispatcher the dispatcher for the client's commands
 	 * @throws IOException
 	 */
-	public FTPClientThread(FTPClient client) {
-		this(client, 400);
+	public FTPClientThread(FTPClient client, FTPCommandDispatcher dispatcher) {
+		this(client, dispatcher, 512);
 	}
 
 	/**
 	 * Creates a <code>FTPClientThread</code>.
 	 * @param client the client this thread runs for
+	 * @param dispatcher the dispatcher for the client's commands
 	 */
-	protected FTPClientThread(FTPClient client, int bufferSize) {
+	protected FTPClientThread(FTPClient client, FTPCommandDispatcher dispatcher, int bufferSize) {
 		this.client = client;
 		this.inter = client.getInterface();
-		this.queue = inter.getCommandQueue();
-		this.buffer = new char[bufferSize];
-		this.setName("FTPL_THREAD_" + inter.getUniqueString());
+		this.dispatcher = dispatcher;
+		this.decoder = new FTPResponseDecoder(bufferSize);
+	}
+	
+	/**
+	 * Gets the name of the thread this loop should run on.
+	 * @return the thread name
+	 */
+	public String getName() {
+		return "FTPL_THREAD_" + inter.getUniqueString();
 	}
 	
 	/**
@@ -69,52 +66,37 @@ class FTPClientThread extends Thread {
 	public void run() {
 		try {
 			this.inputStream = client.getInputStream();
-			this.reader = new InputStreamReader(this.inputStream, FTPFiletype.ASCII.getCharset());
-
+			
 			while (!inter.isClosing()) {
 				try {
-					synchronized (this.queue) {
-						while (this.queue.size() == 0) {
-							this.queue.wait();
-						}
-					}
+					dispatcher.awaitWork();
 					
-					FTPFuture future = this.queue.remove(0);
-					inter.setFuture(future);
-					future.execute();
+					dispatcher.dispatch();
 
-					while (!inter.isClosing() && !future.completed()) {
-						int read = reader.read(buffer);
-						int newline;
-						while ((newline = findNewlineIndex(buffer, read)) > -1) {
-							String line = new String(buffer, 0, newline);
-							
-							int shift = newline + 2;
-							int len = buffer.length;
-							int threshold = len - shift;
-							for(int i = 0; i < len; i++)
-								if (i < threshold) buffer[i] = buffer[i + shift];
-								else buffer[i] = 0;
-							
-							System.out.println("  " + line);
+					while (!inter.isClosing() && dispatcher.isAwaitingReply()) {
+						ByteBuffer buffer = decoder.getBuffer();
+						int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+						if (read == -1) {
+							logFailure(inter, "control connection closed by server");
+							// closing fails the pending commands and stops this loop
+							client.close();
+							break;
+						}
+						buffer.position(buffer.position() + read);
+						
+						FTPResponse response;
+						while ((response = decoder.next()) != null) {
+							logResponse(inter, response);
 							
-							Matcher matcher = CONTROL_RESPONSE_PATTERN.matcher(line);
-							if (matcher.find()) {
-								int code = Integer.parseInt(matcher.group(1));
-								String delim = matcher.group(2);
-								String content = matcher.group(3);
-								
-								if (delim.equals(" ")) {
-									FTPResponse response = new FTPResponse(code, responseBuffer.append(content).toString());
-									responseBuffer.setLength(0);
-									
-									if (future.pushResponse(response)) break;
-								} else responseBuffer.append(content).append("\n");
-								continue;
-							}
-							responseBuffer.append(line).append("\n");
+							dispatcher.push(response);
+							dispatcher.dispatch();
 						}
 					}
+				} catch (SocketTimeoutException e) {
+					// a transfer's final reply may take as long as the transfer, which the watchdog polices
+					if (dispatcher.isTransferring()) continue;
+					logFailure(inter, "no reply within the read timeout");
+					client.close();
 				} catch (IOException e) {
 					// TODO: Exceptions
 				}
@@ -124,9 +106,9 @@ class FTPClientThread extends Thread {
 		} catch (IOException e) {
 			// TODO: Exceptions
 		} finally {
-			if (reader != null) {
+			if (inputStream != null) {
 				try {
-					reader.close();
+					inputStream.close();
 				} catch (IOException e) {
 					// TODO: Exceptions
 				}
@@ -135,14 +117,31 @@ class FTPClientThread extends Thread {
 	}
 	
 	/**
-	 * Gets the index of the first FTP newline (<code>\r\n</code>) in the character
-	 * array within <code>length</code> characters or the start.
-	 * @param array the array to look in
-	 * @param length the length to loop up to
+	 * Logs and traces a reply received from the server.
+	 * @param inter the client state
+	 * @param response the reply
 	 */
-	private int findNewlineIndex(char[] array, int length) {
-		for (int i = 0, j = 1; j < length; i++, j++)
-			if (array[i] == '\r' && array[j] == '\n') return i;
-		return -1;
+	static void logResponse(FTPInterface inter, FTPResponse response) {
+		FTPWireTrace trace = inter.getWireTrace();
+		if (trace != null) trace.recordReceived(response);
+		if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "< " + response);
+	}
+	
+	/**
+	 * Logs a control connection failure together with the wire trace,
+	 * if there is one.
+	 * @param inter the client state
+	 * @param reason the failure
+	 */
+	static void logFailure(final FTPInterface inter, final String reason) {
+		FTPLog.log(Level.WARN, new FTPLog.Message() {
+			@Override
+			public String get() {
+				FTPWireTrace trace = inter.getWireTrace();
+				String message = inter.getUniqueString() + ": " + reason;
+				if (trace == null) return message;
+				return message + "\n" + trace;
+			}
+		});
 	}
-}
\ No newline at end of file
+}
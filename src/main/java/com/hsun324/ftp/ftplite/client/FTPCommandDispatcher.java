@@ -0,0 +1,329 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPQueueFullException;
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface.QueuePolicy;
+
+/**
+ * A class that moves queued commands to the server and matches
+ * server replies to the commands that are in flight.
+ * <p>
+ * Without pipelining, a single command is in flight at a time. With a
+ * pipeline window larger than one, consecutive pipelinable commands are
+ * written back to back, up to the window size, and replies are matched to
+ * them in the order they were written. A command that is not pipelinable
+ * is only written once every earlier command has completed, and no command
+ * is written after it until it completes.
+ * <p>
+ * The queue is a lock free queue with many producers and a single consumer.
+ * Its capacity is enforced with a <code>Semaphore</code> whose permits are
+ * taken by <code>offer</code> according to the {@link QueuePolicy} and given
+ * back when a command leaves the queue. The response thread parks while it
+ * has no work and is unparked by producers and by transfers that complete
+ * in the background.
+ * <p>
+ * The methods of this class, except <code>offer</code>, <code>failAll</code>,
+ * <code>hasPending</code> and the capacity methods, should only be called
+ * from the thread that handles the session's responses.
+ * @author hsun324
+ * @version 0.7
+ */
+class FTPCommandDispatcher {
+	private final FTPInterface inter;
+	private final Queue<FTPFuture> queue;
+	
+	private final ConcurrentLinkedDeque<FTPFuture> inFlight = new ConcurrentLinkedDeque<FTPFuture>();
+	
+	private final CapacitySemaphore slots = new CapacitySemaphore(Integer.MAX_VALUE);
+	private final AtomicInteger depth = new AtomicInteger();
+	private int capacity = Integer.MAX_VALUE;
+	private volatile QueuePolicy policy = QueuePolicy.BLOCK;
+	private volatile long policyTimeout = 0;
+	
+	private volatile Thread waiter = null;
+	private volatile Runnable wakeup = null;
+	private volatile boolean completionSignalled = false;
+	private volatile boolean dispatching = false;
+	
+	public FTPCommandDispatcher(FTPInterface inter) {
+		this.inter = inter;
+		this.queue = inter.getCommandQueue();
+	}
+	
+	/**
+	 * Gets whether any command is queued, being written or waiting for a
+	 * reply.
+	 * @return whether commands are pending
+	 */
+	public boolean hasPending() {
+		// a command leaves the queue before it is in flight, so dispatching is checked in between
+		if (depth.get() > 0 || dispatching) return true;
+		for (FTPFuture future : inFlight)
+			if (!future.isResultSet()) return true;
+		return false;
+	}
+	
+	/**
+	 * Gets whether no command is waiting for a reply.
+	 * @return whether the dispatcher is idle
+	 */
+	public boolean isIdle() {
+		return inFlight.isEmpty();
+	}
+	
+	/**
+	 * Gets whether a command in flight still waits for a reply from the server.
+	 * When no command does, reading the control connection can wait until a
+	 * command is written or a background transfer completes.
+	 * @return whether a reply is expected
+	 */
+	public boolean isAwaitingReply() {
+		for (FTPFuture future : inFlight)
+			if (future.isAwaitingReply()) return true;
+		return false;
+	}
+	
+	/**
+	 * Gets whether the oldest command in flight uses the data channel, in
+	 * which case its final reply may take as long as the transfer.
+	 * @return whether a transfer may be running
+	 */
+	public boolean isTransferring() {
+		FTPFuture head = inFlight.peekFirst();
+		return head != null && head.usesDataChannel();
+	}
+	
+	/**
+	 * Sets a task that is run whenever work arrives for the session, in
+	 * addition to waking a thread in <code>awaitWork</code>.
+	 * @param wakeup the task or <code>null</code>
+	 */
+	public void setWakeup(Runnable wakeup) {
+		this.wakeup = wakeup;
+	}
+	
+	/**
+	 * Signals that a command in flight finished work it ran in the
+	 * background. The command is completed by the next <code>dispatch</code>.
+	 */
+	public void signalCompletion() {
+		completionSignalled = true;
+		wake();
+	}
+	
+	/**
+	 * Sets the maximum number of commands that may wait in the queue.
+	 * Lowering the capacity does not remove commands that are already queued.
+	 * @param capacity the queue capacity
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException();
+		int change = capacity - this.capacity;
+		if (change > 0) slots.release(change);
+		else if (change < 0) slots.reduce(-change);
+		this.capacity = capacity;
+	}
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Sets what <code>offer</code> does when the queue is full.
+	 * @param policy the policy
+	 * @param timeout the time to wait under {@link QueuePolicy#TIMEOUT}
+	 * @param unit the unit of the timeout
+	 */
+	public void setPolicy(QueuePolicy policy, long timeout, TimeUnit unit) {
+		if (policy == null || timeout < 0) throw new IllegalArgumentException();
+		this.policyTimeout = unit.toNanos(timeout);
+		this.policy = policy;
+	}
+	public QueuePolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Gets the number of commands waiting in the queue.
+	 * @return the queue depth
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+	
+	/**
+	 * Adds a command to the end of the queue and wakes the response thread.
+	 * @param future the command to add
+	 * @throws FTPQueueFullException if the queue stays full as long as the policy allows
+	 * @throws IOException if the thread is interrupted while waiting
+	 */
+	public void offer(FTPFuture future) throws IOException {
+		try {
+			switch (policy) {
+			case FAIL_FAST:
+				if (!slots.tryAcquire()) throw new FTPQueueFullException(getCapacity());
+				break;
+			case TIMEOUT:
+				if (!slots.tryAcquire(policyTimeout, TimeUnit.NANOSECONDS)) throw new FTPQueueFullException(getCapacity());
+				break;
+			default:
+				slots.acquire();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		
+		depth.incrementAndGet();
+		queue.add(future);
+		wake();
+	}
+	
+	/**
+	 * Removes a command that has not been sent yet from the queue.
+	 * @param future the command to remove
+	 * @return whether the command was removed
+	 */
+	public boolean remove(FTPFuture future) {
+		if (!queue.remove(future)) return false;
+		depth.decrementAndGet();
+		slots.release();
+		return true;
+	}
+	
+	/**
+	 * Waits until there is work for the session: a reply to read, a
+	 * background completion to handle or a command that can be written.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void awaitWork() throws InterruptedException {
+		waiter = Thread.currentThread();
+		try {
+			while (!completionSignalled && !isAwaitingReply() && (queue.isEmpty() || !isIdle())) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) throw new InterruptedException();
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+	
+	/**
+	 * Completes commands whose background work has finished, then writes
+	 * as many queued commands to the server as the current command and
+	 * pipeline window allow without blocking.
+	 * @throws IOException if a command could not be written
+	 */
+	public void dispatch() throws IOException {
+		if (completionSignalled) {
+			completionSignalled = false;
+			for (FTPFuture future : inFlight) {
+				inter.setFuture(future);
+				if (future.pushCompletion() || future.isResultSet()) inFlight.remove(future);
+			}
+		}
+		
+		int window = Math.max(1, inter.getPipelineWindow());
+		while (inFlight.size() < window) {
+			FTPFuture last = inFlight.peekLast();
+			if (last != null && (window == 1 || !last.isPipelinable())) return;
+			
+			FTPFuture future = poll(last != null, true);
+			if (future == null) return;
+			
+			boolean pipelined = window > 1 && future.isPipelinable();
+			try {
+				inter.setFuture(inFlight.isEmpty() ? future : inFlight.peekFirst());
+				try {
+					if (pipelined) future.executePipelined();
+					else future.execute();
+				} catch (IOException e) {
+					if (!future.isResultSet()) future.setResult(FTPResult.FAILED);
+					throw e;
+				}
+				
+				if (!future.isResultSet()) inFlight.addLast(future);
+			} finally {
+				dispatching = false;
+			}
+			if (!pipelined) return;
+		}
+	}
+	
+	/**
+	 * Matches a server reply to the oldest command in flight.
+	 * @param response the server reply
+	 */
+	public void push(FTPResponse response) {
+		FTPFuture future = inFlight.peekFirst();
+		if (future == null) return;
+		
+		inter.setFuture(future);
+		if (future.pushResponse(response) || future.isResultSet()) inFlight.remove(future);
+	}
+	
+	/**
+	 * Fails every command that is in flight or queued.
+	 */
+	public void failAll() {
+		FTPFuture future;
+		while ((future = inFlight.pollFirst()) != null) {
+			future.quitExecution();
+			if (!future.isResultSet()) future.setResult(FTPResult.FAILED);
+		}
+		while ((future = poll(false, false)) != null) {
+			if (!future.isResultSet()) future.setResult(FTPResult.FAILED);
+		}
+	}
+	
+	/**
+	 * Removes the next command from the queue.
+	 * @param pipelinableOnly whether only a pipelinable command may be removed
+	 * @param dispatch whether the command is about to be written, which the
+	 * caller signals is done by clearing <code>dispatching</code>
+	 * @return the next command or <code>null</code>
+	 */
+	private FTPFuture poll(boolean pipelinableOnly, boolean dispatch) {
+		FTPFuture next = queue.peek();
+		if (next == null) return null;
+		if (pipelinableOnly && !next.isPipelinable()) return null;
+		
+		next = queue.poll();
+		if (next != null) {
+			if (dispatch) dispatching = true;
+			depth.decrementAndGet();
+			slots.release();
+		}
+		return next;
+	}
+	
+	private void wake() {
+		Thread thread = waiter;
+		if (thread != null) LockSupport.unpark(thread);
+		Runnable task = wakeup;
+		if (task != null) task.run();
+	}
+	
+	/**
+	 * A <code>Semaphore</code> whose permits can be reduced to shrink the capacity.
+	 */
+	private static class CapacitySemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+		
+		public CapacitySemaphore(int permits) {
+			super(permits);
+		}
+		
+		public void reduce(int reduction) {
+			reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+
+/**
+ * A <code>Runnable</code> that owns a <code>Selector</code> and serves the
+ * control channels of every {@link SelectorFTPClient} sharded onto it.
+ * <p>
+ * Channel operations of a session are only performed on the loop's thread.
+ * Other threads hand work to the loop with <code>execute</code>.
+ * @author hsun324
+ * @version 0.7
+ */
+class FTPEventLoop implements Runnable {
+	/**
+	 * The time in milliseconds between checks of the sessions' timeouts.
+	 */
+	private static final long TIMEOUT_CHECK_INTERVAL = 250;
+	
+	private final String name;
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	private volatile Thread thread = null;
+	private volatile boolean closed = false;
+	private long nextTimeoutCheck = 0;
+	
+	public FTPEventLoop(String name) throws IOException {
+		this.name = name;
+		this.selector = Selector.open();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Gets the selector of this loop.
+	 * @return the selector
+	 */
+	public Selector getSelector() {
+		return selector;
+	}
+	
+	/**
+	 * Gets whether the calling thread is this loop's thread.
+	 * @return whether the caller runs on the loop
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+	
+	/**
+	 * Runs the provided task on this loop's thread.
+	 * @param task the task to run
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop()) selector.wakeup();
+	}
+	
+	/**
+	 * Stops this loop and closes every channel registered with it.
+	 */
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+	
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		try {
+			while (!closed) {
+				if (tasks.isEmpty()) selector.select(TIMEOUT_CHECK_INTERVAL);
+				else selector.selectNow();
+				runTasks();
+				
+				long now = System.currentTimeMillis();
+				if (now >= nextTimeoutCheck) {
+					nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL;
+					for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys()))
+						((FTPSelectorSession) key.attachment()).checkTimeouts(now);
+				}
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					FTPSelectorSession session = (FTPSelectorSession) key.attachment();
+					session.handleReady(key);
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// TODO: Exceptions
+		} catch (IOException e) {
+			// TODO: Exceptions
+		} finally {
+			runTasks();
+			for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys()))
+				((FTPSelectorSession) key.attachment()).closeChannel();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+	}
+	
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				FTPLog.log(Level.ERROR, "event loop task failed", e);
+			}
+		}
+	}
+}
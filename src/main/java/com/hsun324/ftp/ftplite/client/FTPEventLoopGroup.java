@@ -0,0 +1,89 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of event loops that serve the control channels of many
+ * {@link SelectorFTPClient} sessions.
+ * <p>
+ * Each loop runs on its own thread and multiplexes the sessions sharded
+ * onto it with a <code>Selector</code>. Sessions are assigned to loops in
+ * turn. Data transfers still use blocking channels and are run on a
+ * shared pool of worker threads so that they never stall a loop.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPEventLoopGroup {
+	private final FTPEventLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final ExecutorService blockingExecutor;
+	
+	/**
+	 * Creates a <code>FTPEventLoopGroup</code> with one loop for each
+	 * available processor.
+	 * @throws IOException if a selector could not be opened
+	 */
+	public FTPEventLoopGroup() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a <code>FTPEventLoopGroup</code> with the provided number of loops.
+	 * @param loopCount the number of loops
+	 * @throws IOException if a selector could not be opened
+	 */
+	public FTPEventLoopGroup(int loopCount) throws IOException {
+		if (loopCount < 1) throw new IllegalArgumentException();
+		
+		this.loops = new FTPEventLoop[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			loops[i] = new FTPEventLoop("FTPL-LOOP-" + i);
+			
+			Thread thread = new Thread(loops[i], loops[i].getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		this.blockingExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FTPL-LOOP-WORKER-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Gets the number of loops in this group.
+	 * @return the loop count
+	 */
+	public int getLoopCount() {
+		return loops.length;
+	}
+	
+	/**
+	 * Creates a session bound to the next loop of this group.
+	 * @param client the client the session belongs to
+	 * @param dispatcher the client's dispatcher
+	 * @return the session
+	 */
+	FTPSelectorSession newSession(SelectorFTPClient client, FTPCommandDispatcher dispatcher) {
+		FTPEventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		return new FTPSelectorSession(client, dispatcher, loop, blockingExecutor);
+	}
+	
+	/**
+	 * Stops every loop, closing the control channels of their sessions.
+	 */
+	public void close() {
+		for (FTPEventLoop loop : loops) loop.close();
+		blockingExecutor.shutdown();
+	}
+}
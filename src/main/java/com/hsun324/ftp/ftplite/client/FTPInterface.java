@@ -1,8 +1,11 @@
 package com.hsun324.ftp.ftplite.client;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
 import com.hsun324.ftp.ftplite.FTPFuture;
@@ -19,6 +22,13 @@ public interface FTPInterface {
 	public boolean isClosed();
 	
 	public void setClientState(ClientState state);
+	/**
+	 * Atomically moves the client to a new state if it is in the expected state.
+	 * @param expect the expected state
+	 * @param update the new state
+	 * @return whether the state was changed
+	 */
+	public boolean compareAndSetClientState(ClientState expect, ClientState update);
 	public ClientState getClientState();
 	
 	public void setModeCommand(ModeCommand modeCommand);
@@ -32,10 +42,56 @@ public interface FTPInterface {
 	
 	public void setCurrentDirectory(FTPObject currentDirectory);
 	public FTPObject getCurrentDirectory();
+	/**
+	 * Marks the current directory as unknown until it is set again, after a
+	 * command that changed it on the server to a path only the server knows.
+	 */
+	public void invalidateCurrentDirectory();
+	/**
+	 * Gets whether the current directory was reported by the server and
+	 * has not changed since.
+	 * @return whether the current directory is known
+	 */
+	public boolean isCurrentDirectoryKnown();
 
 	public void setCurrentFiletype(FTPFiletype currentFiletype);
+	/**
+	 * Gets the transfer type the server was last told to use.
+	 * @return the filetype or <code>null</code> if it is unknown
+	 */
 	public FTPFiletype getCurrentFiletype();
 	
+	/**
+	 * Counts a command that was not sent because it would have changed
+	 * nothing on the server.
+	 * @param command the name of the command
+	 */
+	public void recordElidedCommand(String command);
+	/**
+	 * Gets the number of commands that were not sent, by command name.
+	 * @return the counts
+	 */
+	public Map<String, Long> getElidedCommandCounts();
+	
+	public void setPipelineWindow(int window);
+	public int getPipelineWindow();
+	
+	public void setConnectTimeout(int timeout);
+	public int getConnectTimeout();
+	public void setReadTimeout(int timeout);
+	public int getReadTimeout();
+	public void setCommandTimeout(long timeout);
+	public long getCommandTimeout();
+	public void setMinimumThroughput(long bytesPerSecond, long period);
+	public long getMinimumThroughput();
+	public long getThroughputPeriod();
+	
+	public void setWireTrace(FTPWireTrace trace);
+	public FTPWireTrace getWireTrace();
+	
+	public void setCapabilityCache(FTPCapabilityCache cache);
+	public FTPCapabilityCache getCapabilityCache();
+	
 	public void setFuture(FTPFuture future);
 	public FTPFuture getFuture();
 	
@@ -50,8 +106,27 @@ public interface FTPInterface {
 	public String getUniqueString();
 	
 	public void writeBytes(byte[] bytes) throws IOException;
+	/**
+	 * Writes a range of bytes to the control connection. The bytes are
+	 * copied or sent before this method returns, so the array may be reused.
+	 * @param bytes the bytes to write
+	 * @param offset the offset of the range
+	 * @param length the length of the range
+	 * @throws IOException
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) throws IOException;
+	public void writeInterrupt() throws IOException;
+	
+	public Executor getTransferExecutor();
+	public void signalCompletion();
 
-	public List<FTPFuture> getCommandQueue();
+	public Queue<FTPFuture> getCommandQueue();
+	public boolean removeQueuedCommand(FTPFuture future);
+	public int getCommandQueueDepth();
+	public void setCommandQueueCapacity(int capacity);
+	public int getCommandQueueCapacity();
+	public void setQueuePolicy(QueuePolicy policy, long timeout, TimeUnit unit);
+	public QueuePolicy getQueuePolicy();
 	public void close() throws IOException;
 	
 	public static enum ClientState {
@@ -74,7 +149,25 @@ public interface FTPInterface {
 			return connected;
 		}
 	}
+	/**
+	 * What queueing a command does when the command queue is full.
+	 */
+	public static enum QueuePolicy {
+		/**
+		 * Waits until the queue has space.
+		 */
+		BLOCK,
+		/**
+		 * Throws a {@link com.hsun324.ftp.ftplite.FTPQueueFullException} at once.
+		 */
+		FAIL_FAST,
+		/**
+		 * Waits up to a timeout for space, then throws a
+		 * {@link com.hsun324.ftp.ftplite.FTPQueueFullException}.
+		 */
+		TIMEOUT;
+	}
 	public static enum Feature {
-		EXTENDED_PASSIVE, MODIFICATION_TIME, METADATA_LIST, FILE_SIZE, UTF8;
+		EXTENDED_PASSIVE, MODIFICATION_TIME, METADATA_LIST, FILE_SIZE, RESTART, UTF8;
 	}
 }
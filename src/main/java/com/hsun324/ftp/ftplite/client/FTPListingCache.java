@@ -0,0 +1,82 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.util.concurrent.TimeUnit;
+
+import com.hsun324.ftp.ftplite.FTPObject;
+
+/**
+ * A cache of directory listings, kept per host, port and absolute path.
+ * Trailing separators are ignored, so <code>/a/</code> is cached as <code>/a</code>.
+ * <p>
+ * A client with a listing cache answers <code>getFileList</code> for a
+ * cached directory without contacting the server. Entries expire after a
+ * time to live, and the least recently used entries are evicted once the
+ * cache holds more than its maximum number of entries or listing bytes. A
+ * client removes the affected entries itself whenever it writes, appends,
+ * deletes, creates or removes something below a cached directory, but
+ * changes made by other clients are only seen once an entry expires.
+ * <p>
+ * A cache may be shared by clients that log in to the same servers as the
+ * same user.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPListingCache extends FTPPathCache<FTPObject[]> {
+	private final long timeToLive;
+	
+	/**
+	 * Creates a <code>FTPListingCache</code>.
+	 * @param maximumEntries the maximum number of listings kept
+	 * @param maximumBytes the maximum total size of the raw listings kept
+	 * @param timeToLive the time a listing stays valid
+	 * @param unit the unit of the time to live
+	 */
+	public FTPListingCache(int maximumEntries, long maximumBytes, long timeToLive, TimeUnit unit) {
+		super(maximumEntries, maximumBytes);
+		if (timeToLive <= 0 || unit == null) throw new IllegalArgumentException();
+		this.timeToLive = unit.toMillis(timeToLive);
+	}
+	
+	/**
+	 * Gets the cached listing of a directory.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path of the directory
+	 * @return a copy of the listing or <code>null</code> if it is not cached or expired
+	 */
+	public FTPObject[] get(String host, int port, String path) {
+		FTPObject[] objects = lookup(host, port, path);
+		return objects == null ? null : objects.clone();
+	}
+	
+	/**
+	 * Caches the listing of a directory, unless an invalidation happened
+	 * since the stamp was taken, in which case the listing may predate a
+	 * write and is dropped. A listing larger than the maximum size is
+	 * never cached.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path of the directory
+	 * @param objects the listing
+	 * @param size the size of the raw listing in bytes
+	 * @param stamp the stamp taken before the listing was requested
+	 */
+	public void put(String host, int port, String path, FTPObject[] objects, long size, long stamp) {
+		if (objects == null || size < 0) throw new IllegalArgumentException();
+		store(host, port, path, objects.clone(), size, stamp);
+	}
+	
+	/**
+	 * Gets the total size of the raw listings cached.
+	 * @return the size in bytes
+	 */
+	@Override
+	public long getByteCount() {
+		return super.getByteCount();
+	}
+	
+	@Override
+	protected long getTimeToLive(FTPObject[] objects) {
+		return timeToLive;
+	}
+}
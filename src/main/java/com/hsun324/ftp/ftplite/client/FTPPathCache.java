@@ -0,0 +1,280 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of values kept per host, port and absolute path, the base of
+ * the {@link FTPListingCache} and the {@link FTPStatusCache}.
+ * <p>
+ * Entries expire after a time to live that may depend on the value, and
+ * the least recently used entries are evicted once the cache holds more
+ * than its maximum number of entries or bytes. Trailing separators are
+ * ignored, so <code>/a/</code> is cached as <code>/a</code>.
+ * <p>
+ * A value is only cached if no invalidation happened since it was
+ * requested from the server, so a value that may predate a write is
+ * never cached.
+ * @author hsun324
+ * @version 0.7
+ * @param <V> the cached value type
+ */
+public abstract class FTPPathCache<V> {
+	private final int maximumEntries;
+	private final long maximumBytes;
+	
+	private final Lock lock = new ReentrantLock();
+	private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+	private long bytes = 0;
+	
+	/**
+	 * The number of invalidations so far. A value is only cached if no
+	 * invalidation happened since it was requested.
+	 */
+	private final AtomicLong stamp = new AtomicLong();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	/**
+	 * Creates a <code>FTPPathCache</code>.
+	 * @param maximumEntries the maximum number of values kept
+	 * @param maximumBytes the maximum total size of the values kept
+	 */
+	protected FTPPathCache(int maximumEntries, long maximumBytes) {
+		if (maximumEntries <= 0 || maximumBytes <= 0) throw new IllegalArgumentException();
+		this.maximumEntries = maximumEntries;
+		this.maximumBytes = maximumBytes;
+	}
+	
+	/**
+	 * Gets the time the provided value stays valid.
+	 * @param value the value
+	 * @return the time to live in milliseconds
+	 */
+	protected abstract long getTimeToLive(V value);
+	
+	/**
+	 * Gets the cached value of a path.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path
+	 * @return the value or <code>null</code> if it is not cached or expired
+	 */
+	protected final V lookup(String host, int port, String path) {
+		String key = getKey(host, port, path);
+		lock.lock();
+		try {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.timestamp >= getTimeToLive(entry.value)) {
+				remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the current stamp, which must be taken before a value is
+	 * requested from the server and passed to <code>put</code> once it
+	 * has arrived.
+	 * @return the stamp
+	 */
+	public long getStamp() {
+		return stamp.get();
+	}
+	
+	/**
+	 * Caches the value of a path, unless an invalidation happened since
+	 * the stamp was taken. A value larger than the maximum size is never
+	 * cached.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path
+	 * @param value the value
+	 * @param size the size of the value in bytes
+	 * @param stamp the stamp taken before the value was requested
+	 */
+	protected final void store(String host, int port, String path, V value, long size, long stamp) {
+		if (size > maximumBytes) return;
+		
+		String key = getKey(host, port, path);
+		lock.lock();
+		try {
+			if (this.stamp.get() != stamp) return;
+			
+			remove(key);
+			entries.put(key, new Entry<V>(value, size, System.currentTimeMillis()));
+			bytes += size;
+			
+			Iterator<Entry<V>> iterator = entries.values().iterator();
+			while ((entries.size() > maximumEntries || bytes > maximumBytes) && iterator.hasNext()) {
+				bytes -= iterator.next().size;
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the values a change to the provided path may affect: the
+	 * value of the path itself, of its parent directory and of everything
+	 * below it.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path that changed
+	 */
+	public void invalidate(String host, int port, String path) {
+		path = normalize(path);
+		String key = getKey(host, port, path);
+		int index = path.lastIndexOf('/');
+		String parent = getKey(host, port, index <= 0 ? "/" : path.substring(0, index));
+		String prefix = key.endsWith("/") ? key : key + "/";
+		
+		lock.lock();
+		try {
+			stamp.incrementAndGet();
+			invalidations.incrementAndGet();
+			
+			Iterator<Map.Entry<String, Entry<V>>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry<V>> entry = iterator.next();
+				String entryKey = entry.getKey();
+				if (entryKey.equals(key) || entryKey.equals(parent) || entryKey.startsWith(prefix)) {
+					bytes -= entry.getValue().size;
+					iterator.remove();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes every value.
+	 */
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			stamp.incrementAndGet();
+			invalidations.incrementAndGet();
+			entries.clear();
+			bytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the number of lookups that found a value.
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of lookups that found no value or an expired one.
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of values evicted to stay within the bounds.
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Gets the number of invalidations caused by writes.
+	 * @return the invalidation count
+	 */
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+	
+	/**
+	 * Gets the number of values cached.
+	 * @return the entry count
+	 */
+	public int getEntryCount() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the total size of the values cached.
+	 * @return the size in bytes
+	 */
+	protected long getByteCount() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes an entry. Must be called while holding the lock.
+	 * @param key the key
+	 */
+	private void remove(String key) {
+		Entry<V> entry = entries.remove(key);
+		if (entry != null) bytes -= entry.size;
+	}
+	
+	private static String getKey(String host, int port, String path) {
+		return host.toLowerCase() + ":" + port + normalize(path);
+	}
+	
+	/**
+	 * Removes the trailing separators of a path, so that <code>/a</code>
+	 * and <code>/a/</code> denote the same file.
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	private static String normalize(String path) {
+		int end = path.length();
+		while (end > 1 && path.charAt(end - 1) == '/') end--;
+		return path.substring(0, end);
+	}
+	
+	/**
+	 * A cached value.
+	 */
+	private static final class Entry<V> {
+		private final V value;
+		private final long size;
+		private final long timestamp;
+		
+		public Entry(V value, long size, long timestamp) {
+			this.value = value;
+			this.size = size;
+			this.timestamp = timestamp;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.hsun324.ftp.ftplite.FTPResponse;
+
+/**
+ * A class that incrementally decodes server replies from the bytes
+ * of the control channel.
+ * <p>
+ * Bytes are read into the buffer returned by <code>getBuffer</code> and
+ * replies are taken out with <code>next</code>. Lines are scanned in place
+ * and a line terminator split across reads is handled by resuming the
+ * scan where it stopped. The reply code and multiple line continuations
+ * are parsed from the bytes directly. Only the content of a completed
+ * reply is copied out, and it is only decoded to a <code>String</code>
+ * if the reply's content is requested.
+ * <p>
+ * A multiple line reply ends on the first line that starts with the
+ * opening code followed by a space, as described in RFC 959.
+ * @author hsun324
+ * @version 0.7
+ */
+class FTPResponseDecoder {
+	private static final int DEFAULT_BUFFER_SIZE = 512;
+	private static final int DEFAULT_CONTENT_SIZE = 128;
+	
+	/**
+	 * The read buffer. Its position marks the end of the bytes read.
+	 */
+	private ByteBuffer buffer;
+	/**
+	 * The index of the first unconsumed byte.
+	 */
+	private int readIndex = 0;
+	/**
+	 * The index at which scanning for a line feed resumes.
+	 */
+	private int scanIndex = 0;
+	
+	private byte[] content = new byte[DEFAULT_CONTENT_SIZE];
+	private int contentLength = 0;
+	/**
+	 * The code of the multiple line reply being decoded or <code>-1</code>.
+	 */
+	private int multilineCode = -1;
+	
+	/**
+	 * Creates a <code>FTPResponseDecoder</code> with the standard size buffer.
+	 */
+	public FTPResponseDecoder() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Creates a <code>FTPResponseDecoder</code> with the provided initial buffer size.
+	 * @param bufferSize the initial buffer size
+	 */
+	public FTPResponseDecoder(int bufferSize) {
+		if (bufferSize < 4) throw new IllegalArgumentException();
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+	
+	/**
+	 * Gets the buffer that bytes read from the server should be put into.
+	 * The buffer always has space remaining.
+	 * @return the read buffer
+	 */
+	public ByteBuffer getBuffer() {
+		if (readIndex == buffer.position()) {
+			buffer.clear();
+			readIndex = scanIndex = 0;
+		} else if (!buffer.hasRemaining()) {
+			if (readIndex > 0) {
+				buffer.flip();
+				buffer.position(readIndex);
+				buffer.compact();
+				scanIndex -= readIndex;
+				readIndex = 0;
+			} else {
+				ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Decodes the next complete reply from the bytes read so far.
+	 * @return the reply or <code>null</code> if more bytes are needed
+	 */
+	public FTPResponse next() {
+		byte[] array = buffer.array();
+		int limit = buffer.position();
+		
+		while (true) {
+			int lineEnd = -1;
+			for (int i = Math.max(scanIndex, readIndex + 1); i < limit; i++) {
+				if (array[i] == '\n' && array[i - 1] == '\r') {
+					lineEnd = i - 1;
+					break;
+				}
+			}
+			if (lineEnd < 0) {
+				scanIndex = limit;
+				return null;
+			}
+			
+			int lineStart = readIndex;
+			readIndex = scanIndex = lineEnd + 2;
+			
+			FTPResponse response = decodeLine(array, lineStart, lineEnd);
+			if (response != null) return response;
+		}
+	}
+	
+	private FTPResponse decodeLine(byte[] array, int start, int end) {
+		int code = parseCode(array, start, end);
+		if (code >= 0) {
+			byte delim = end - start == 3 ? (byte) ' ' : array[start + 3];
+			if ((delim == ' ' || delim == '-') && (multilineCode < 0 || code == multilineCode)) {
+				appendContent(array, Math.min(start + 4, end), end);
+				if (delim == ' ') {
+					FTPResponse response = new FTPResponse(code, Arrays.copyOf(content, contentLength));
+					contentLength = 0;
+					multilineCode = -1;
+					return response;
+				}
+				if (multilineCode < 0) multilineCode = code;
+				appendNewline();
+				return null;
+			}
+		}
+		appendContent(array, start, end);
+		appendNewline();
+		return null;
+	}
+	
+	private static int parseCode(byte[] array, int start, int end) {
+		if (end - start < 3) return -1;
+		int code = 0;
+		for (int i = start; i < start + 3; i++) {
+			int digit = array[i] - '0';
+			if (digit < 0 || digit > 9) return -1;
+			code = code * 10 + digit;
+		}
+		return code;
+	}
+	
+	private void appendContent(byte[] array, int start, int end) {
+		int length = end - start;
+		ensureContentCapacity(contentLength + length);
+		System.arraycopy(array, start, content, contentLength, length);
+		contentLength += length;
+	}
+	
+	private void appendNewline() {
+		ensureContentCapacity(contentLength + 1);
+		content[contentLength++] = '\n';
+	}
+	
+	private void ensureContentCapacity(int capacity) {
+		if (capacity > content.length)
+			content = Arrays.copyOf(content, Math.max(capacity, content.length * 2));
+	}
+}
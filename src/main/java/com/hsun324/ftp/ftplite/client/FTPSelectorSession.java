@@ -0,0 +1,316 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.hsun324.ftp.ftplite.FTPBufferPool;
+import com.hsun324.ftp.ftplite.FTPResponse;
+
+/**
+ * The non-blocking control connection of a {@link SelectorFTPClient}.
+ * <p>
+ * Readiness events from the session's {@link FTPEventLoop} are turned into
+ * replies that drive the client's {@link FTPCommandDispatcher}. Dispatcher
+ * work for a session is serialized and runs on the loop thread. Data
+ * transfers run on the group's worker threads, so the loop keeps serving
+ * its other sessions while data moves. Queued writes are copied into
+ * buffers leased from {@link FTPBufferPool#DIRECT}, which are released once
+ * they have been written.
+ * @author hsun324
+ * @version 0.7
+ */
+class FTPSelectorSession {
+	private final SelectorFTPClient client;
+	private final FTPCommandDispatcher dispatcher;
+	private final FTPEventLoop loop;
+	private final Executor workerExecutor;
+	
+	private SocketChannel channel = null;
+	private SelectionKey key = null;
+	
+	/**
+	 * Whether replies are read. A session that was connected ahead of its
+	 * login leaves the greeting unread until then. Confined to the loop.
+	 */
+	private boolean reading = false;
+	
+	/**
+	 * The time the connection was started or data last moved on it.
+	 */
+	private volatile long lastActivity = 0;
+	
+	private final FTPResponseDecoder decoder = new FTPResponseDecoder();
+	
+	private final ConcurrentLinkedQueue<Write> writes = new ConcurrentLinkedQueue<Write>();
+	private final OutputStream output = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer copy = FTPBufferPool.DIRECT.lease(len);
+			copy.put(b, off, len).flip();
+			enqueueWrite(new Write(copy, false));
+		}
+	};
+	
+	private final Runnable dispatch = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				dispatcher.dispatch();
+			} catch (IOException e) {
+				fail();
+			}
+		}
+	};
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flushWrites();
+		}
+	};
+	
+	public FTPSelectorSession(SelectorFTPClient client, FTPCommandDispatcher dispatcher, FTPEventLoop loop, Executor workerExecutor) {
+		this.client = client;
+		this.dispatcher = dispatcher;
+		this.loop = loop;
+		this.workerExecutor = workerExecutor;
+		
+		dispatcher.setWakeup(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLater();
+			}
+		});
+	}
+	
+	/**
+	 * Gets the executor that runs blocking work, like data transfers,
+	 * for this session.
+	 * @return the worker executor
+	 */
+	public Executor getWorkerExecutor() {
+		return workerExecutor;
+	}
+	
+	/**
+	 * Gets the stream that commands are written to. Written bytes are
+	 * queued and sent by the loop when the channel is writable.
+	 * @return the output stream
+	 */
+	public OutputStream getOutputStream() {
+		return output;
+	}
+	
+	/**
+	 * Queues a single byte to be sent as TCP urgent data after every byte
+	 * written to the output stream so far. If the channel does not support
+	 * urgent data, the byte is sent in band.
+	 * @param data the byte to send
+	 */
+	public void writeUrgent(int data) {
+		enqueueWrite(new Write(ByteBuffer.wrap(new byte[] { (byte) data }), true));
+	}
+	
+	/**
+	 * Starts connecting to the provided address on the loop, unless the
+	 * session is already connecting, and optionally starts reading replies.
+	 * @param address the address to connect to
+	 * @param read whether replies should be read once connected
+	 */
+	public void connect(final InetSocketAddress address, final boolean read) {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (read) reading = true;
+					if (channel != null) {
+						if (key != null && key.isValid() && !channel.isConnectionPending()) key.interestOps(key.interestOps() | getReadyOps());
+						return;
+					}
+					
+					lastActivity = System.currentTimeMillis();
+					channel = SocketChannel.open();
+					channel.configureBlocking(false);
+					if (channel.connect(address)) {
+						key = channel.register(loop.getSelector(), getReadyOps(), FTPSelectorSession.this);
+						flushWrites();
+					} else key = channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, FTPSelectorSession.this);
+				} catch (IOException e) {
+					fail();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Schedules a dispatch of queued commands.
+	 */
+	public void dispatchLater() {
+		loop.execute(dispatch);
+	}
+	
+	/**
+	 * Closes the control channel on the loop.
+	 */
+	public void close() {
+		if (loop.inEventLoop()) closeChannel();
+		else loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				closeChannel();
+			}
+		});
+	}
+	
+	/**
+	 * Handles a readiness event. Must be called on the loop.
+	 * @param key the ready key
+	 */
+	public void handleReady(SelectionKey key) {
+		try {
+			if (!key.isValid()) return;
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				key.interestOps(getReadyOps());
+				flushWrites();
+			}
+			if (key.isValid() && key.isReadable()) read();
+			if (key.isValid() && key.isWritable()) flushWrites();
+		} catch (IOException e) {
+			fail();
+		}
+	}
+	
+	/**
+	 * Closes the control channel. Must be called on the loop.
+	 */
+	public void closeChannel() {
+		if (key != null) key.cancel();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		}
+	}
+	
+	/**
+	 * Fails the session if its connection or its reply is overdue. Must be
+	 * called on the loop.
+	 * @param now the current time in milliseconds
+	 */
+	public void checkTimeouts(long now) {
+		FTPInterface inter = client.getInterface();
+		if (channel == null || !channel.isOpen()) return;
+		
+		int connectTimeout = inter.getConnectTimeout();
+		if (channel.isConnectionPending()) {
+			if (connectTimeout > 0 && now - lastActivity >= connectTimeout) {
+				FTPClientThread.logFailure(inter, "connect timed out");
+				fail();
+			}
+			return;
+		}
+		
+		int readTimeout = inter.getReadTimeout();
+		if (readTimeout > 0 && dispatcher.isAwaitingReply() && !dispatcher.isTransferring() && now - lastActivity >= readTimeout) {
+			FTPClientThread.logFailure(inter, "no reply within the read timeout");
+			fail();
+		}
+	}
+	
+	private int getReadyOps() {
+		return reading ? SelectionKey.OP_READ : 0;
+	}
+	
+	private void read() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		int read = channel.read(decoder.getBuffer());
+		if (read == -1) {
+			FTPClientThread.logFailure(client.getInterface(), "control connection closed by server");
+			fail();
+			return;
+		}
+		
+		FTPResponse response;
+		while ((response = decoder.next()) != null) {
+			FTPClientThread.logResponse(client.getInterface(), response);
+			
+			dispatcher.push(response);
+			dispatch.run();
+		}
+	}
+	
+	private void enqueueWrite(Write write) {
+		lastActivity = System.currentTimeMillis();
+		writes.add(write);
+		if (loop.inEventLoop()) flushWrites();
+		else loop.execute(flush);
+	}
+	
+	private void flushWrites() {
+		if (key == null || !key.isValid() || channel.isConnectionPending()) return;
+		try {
+			Write write;
+			while ((write = writes.peek()) != null) {
+				ByteBuffer buffer = write.buffer;
+				if (write.urgent) {
+					try {
+						channel.socket().sendUrgentData(buffer.get(0));
+						buffer.position(buffer.limit());
+					} catch (SocketException e) {
+						// urgent data is not supported or the buffer is full
+						channel.write(buffer);
+					}
+				} else channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				writes.poll();
+				FTPBufferPool.DIRECT.release(buffer);
+			}
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			fail();
+		}
+	}
+	
+	private void fail() {
+		close();
+		workerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					client.close();
+				} catch (IOException e) {
+					// TODO: Exceptions
+				}
+			}
+		});
+	}
+	
+	/**
+	 * A pending write to the control channel.
+	 */
+	private static class Write {
+		private final ByteBuffer buffer;
+		private final boolean urgent;
+		
+		public Write(ByteBuffer buffer, boolean urgent) {
+			this.buffer = buffer;
+			this.urgent = urgent;
+		}
+	}
+}
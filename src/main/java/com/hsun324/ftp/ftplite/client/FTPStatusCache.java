@@ -0,0 +1,68 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.util.concurrent.TimeUnit;
+
+import com.hsun324.ftp.ftplite.FTPFileStatus;
+
+/**
+ * A cache of file metadata, kept per host, port and absolute path.
+ * <p>
+ * A client with a status cache answers <code>getFileStatus</code> for a
+ * cached path without contacting the server. Answers that a file does not
+ * exist are cached as well, usually for a shorter time than the metadata
+ * of existing files. The least recently used entries are evicted once the
+ * cache holds more than its maximum number of entries. Like the
+ * {@link FTPListingCache}, the cache is invalidated by the writes of the
+ * client that uses it, but changes made by other clients are only seen
+ * once an entry expires.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPStatusCache extends FTPPathCache<FTPFileStatus> {
+	private final long timeToLive;
+	private final long missingTimeToLive;
+	
+	/**
+	 * Creates a <code>FTPStatusCache</code>.
+	 * @param maximumEntries the maximum number of statuses kept
+	 * @param timeToLive the time the status of an existing file stays valid
+	 * @param missingTimeToLive the time an answer that a file does not exist stays valid
+	 * @param unit the unit of the times to live
+	 */
+	public FTPStatusCache(int maximumEntries, long timeToLive, long missingTimeToLive, TimeUnit unit) {
+		super(maximumEntries, Long.MAX_VALUE);
+		if (timeToLive <= 0 || missingTimeToLive <= 0 || unit == null) throw new IllegalArgumentException();
+		this.timeToLive = unit.toMillis(timeToLive);
+		this.missingTimeToLive = unit.toMillis(missingTimeToLive);
+	}
+	
+	/**
+	 * Gets the cached status of a file.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param path the absolute path of the file
+	 * @return the status or <code>null</code> if it is not cached or expired
+	 */
+	public FTPFileStatus get(String host, int port, String path) {
+		return lookup(host, port, path);
+	}
+	
+	/**
+	 * Caches the status of a file, unless an invalidation happened since
+	 * the stamp was taken, in which case the status may predate a write
+	 * and is dropped.
+	 * @param host the server host
+	 * @param port the server port
+	 * @param status the status of the file, which must have an absolute path
+	 * @param stamp the stamp taken before the status was requested
+	 */
+	public void put(String host, int port, FTPFileStatus status, long stamp) {
+		if (status == null) throw new IllegalArgumentException();
+		store(host, port, status.getFile().getPath(), status, 0, stamp);
+	}
+	
+	@Override
+	protected long getTimeToLive(FTPFileStatus status) {
+		return status.exists() ? timeToLive : missingTimeToLive;
+	}
+}
@@ -0,0 +1,39 @@
+package com.hsun324.ftp.ftplite.client;
+
+import com.hsun324.ftp.ftplite.client.SocketFTPClient.ExecutionMode;
+
+/**
+ * A class that creates the threads that run client loops.
+ * <p>
+ * This implementation is used on runtimes without virtual threads and
+ * always creates platform threads. The multi-release jar replaces it on
+ * Java 21 and later with an implementation that honours
+ * {@link ExecutionMode#VIRTUAL}.
+ * @author hsun324
+ * @version 0.7
+ */
+final class FTPThreads {
+	private FTPThreads() { }
+	
+	/**
+	 * Gets whether this runtime can create virtual threads.
+	 * @return whether virtual threads are supported
+	 */
+	static boolean isVirtualSupported() {
+		return false;
+	}
+	
+	/**
+	 * Creates an unstarted thread.
+	 * @param mode the requested execution mode
+	 * @param name the name of the thread
+	 * @param daemon whether a platform thread should be a daemon thread
+	 * @param runnable the code to run
+	 * @return the thread
+	 */
+	static Thread newThread(ExecutionMode mode, String name, boolean daemon, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(daemon);
+		return thread;
+	}
+}
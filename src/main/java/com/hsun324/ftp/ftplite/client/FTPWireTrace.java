@@ -0,0 +1,108 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+
+/**
+ * A fixed size record of the most recent control channel traffic of
+ * a client.
+ * <p>
+ * Recording is lock free: each record claims a sequence number and
+ * overwrites the oldest slot of a ring buffer. Records are only
+ * formatted when the trace is dumped, which is usually done after
+ * something has failed. Passwords sent with PASS are masked in dumps.
+ * @author hsun324
+ * @version 0.7
+ */
+public class FTPWireTrace {
+	private final AtomicReferenceArray<Record> records;
+	private final int mask;
+	private final AtomicLong sequence = new AtomicLong();
+	
+	/**
+	 * Creates a <code>FTPWireTrace</code> that keeps at least the provided
+	 * number of records. The capacity is rounded up to a power of two.
+	 * @param capacity the number of records to keep
+	 */
+	public FTPWireTrace(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException();
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		
+		this.records = new AtomicReferenceArray<Record>(size);
+		this.mask = size - 1;
+	}
+	
+	/**
+	 * Records bytes written to the server.
+	 * @param bytes the bytes written
+	 */
+	public void recordSent(byte[] bytes) {
+		record(true, bytes);
+	}
+	
+	/**
+	 * Records a reply received from the server.
+	 * @param response the reply
+	 */
+	public void recordReceived(FTPResponse response) {
+		record(false, response);
+	}
+	
+	private void record(boolean sent, Object data) {
+		long next = sequence.getAndIncrement();
+		records.set((int) (next & mask), new Record(next, sent, data));
+	}
+	
+	/**
+	 * Appends the recorded traffic, oldest first, to the provided output.
+	 * Records that are overwritten while dumping are skipped.
+	 * @param out the output to append to
+	 * @throws IOException
+	 */
+	public void dump(Appendable out) throws IOException {
+		long end = sequence.get();
+		long start = Math.max(0, end - records.length());
+		for (long i = start; i < end; i++) {
+			Record record = records.get((int) (i & mask));
+			if (record == null || record.sequence != i) continue;
+			
+			out.append(record.sent ? "> " : "< ").append(record.format()).append('\n');
+		}
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		try {
+			dump(builder);
+		} catch (IOException e) {
+			// TODO: Exceptions
+		}
+		return builder.toString();
+	}
+	
+	private static class Record {
+		private final long sequence;
+		private final boolean sent;
+		private final Object data;
+		
+		public Record(long sequence, boolean sent, Object data) {
+			this.sequence = sequence;
+			this.sent = sent;
+			this.data = data;
+		}
+		
+		public String format() {
+			if (!sent) return data.toString();
+			
+			String line = new String((byte[]) data, FTPFiletype.ASCII.getCharset()).trim();
+			if (line.regionMatches(true, 0, "PASS ", 0, 5)) return "PASS ****";
+			return line;
+		}
+	}
+}
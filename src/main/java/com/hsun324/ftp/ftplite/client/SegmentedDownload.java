@@ -0,0 +1,104 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.FTPTypeDecider;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+import com.hsun324.ftp.ftplite.commands.DownloadCommandRetrieveFile;
+
+/**
+ * A download engine that retrieves a single large file over several
+ * connections at once.
+ * <p>
+ * The size of the file is requested with SIZE, the local file is
+ * preallocated to that size and the file is split into ranges. Each range
+ * is retrieved with REST and RETR on its own {@link SocketFTPClient} session
+ * and written into its own region of the local file.
+ * <p>
+ * If the server does not support SIZE, or the file is too small to be
+ * worth splitting, the file is retrieved over a single connection. The
+ * file is always retrieved in binary mode, so the number of bytes written
+ * matches the size reported by the server.
+ * @author hsun324
+ * @version 0.7
+ */
+public class SegmentedDownload extends SegmentedTransfer {
+	/**
+	 * Creates a <code>SegmentedDownload</code> that logs in to the provided
+	 * host on the default FTP port.
+	 * @param host address to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 */
+	public SegmentedDownload(String host, String user, String password) {
+		this(host, SocketFTPClient.DEFAULT_FTP_SERVER_PORT, user, password);
+	}
+
+	/**
+	 * Creates a <code>SegmentedDownload</code> that logs in to the provided
+	 * host on the provided port.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 */
+	public SegmentedDownload(String host, int port, String user, String password) {
+		super(host, port, user, password);
+	}
+
+	/**
+	 * Retrieves the file denoted by the file into the provided local file.
+	 * <p>
+	 * This method blocks until every segment has been retrieved or one
+	 * of them has failed more than the allowed number of times.
+	 * @param file the file to retrieve
+	 * @param target the local file to write to
+	 * @return the number of bytes retrieved
+	 * @throws IOException if the download fails
+	 */
+	public long download(FTPObject file, Path target) throws IOException {
+		long size = -1;
+		int segments = 1;
+
+		SocketFTPClient probe = openSession();
+		try {
+			if (probe.getInterface().isFeatureSupported(Feature.FILE_SIZE)) {
+				Long remoteSize = probe.getFileSize(file).getData();
+				if (remoteSize != null) size = remoteSize;
+			}
+
+			segments = getSegments(size);
+			if (segments == 1) {
+				FTPResult result = probe.queueFileCommand(new DownloadCommandRetrieveFile(file, target), FTPTypeDecider.BINARY).getResult();
+				if (!result.isSuccessful()) throw new IOException("download failed");
+				return result.getTransferredBytes();
+			}
+		} finally {
+			probe.close();
+		}
+
+		RandomAccessFile allocator = new RandomAccessFile(target.toFile(), "rw");
+		try {
+			allocator.setLength(size);
+		} finally {
+			allocator.close();
+		}
+
+		return transferSegments(file, target, size, segments, 0);
+	}
+
+	@Override
+	protected boolean isResumable() {
+		return true;
+	}
+
+	@Override
+	protected FTPFuture queueSegment(SocketFTPClient session, FTPObject file, Path local, long offset, long length) throws IOException {
+		return session.getFileRange(file, local, offset, length);
+	}
+}
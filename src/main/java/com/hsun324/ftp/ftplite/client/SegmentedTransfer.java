@@ -0,0 +1,259 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPResult;
+
+/**
+ * This abstract class represents a transfer engine that moves a single
+ * large file over several connections at once.
+ * <p>
+ * The file is split into ranges and each range is transferred on its own
+ * {@link SocketFTPClient} session. A range that fails is retried on a fresh
+ * session without affecting the other ranges.
+ * @author hsun324
+ * @version 0.7
+ */
+public abstract class SegmentedTransfer {
+	/**
+	 * Default number of segments.
+	 */
+	public static final int DEFAULT_SEGMENT_COUNT = 4;
+	/**
+	 * Default number of retries for each segment.
+	 */
+	public static final int DEFAULT_SEGMENT_RETRIES = 3;
+	/**
+	 * Default minimum segment size.
+	 */
+	public static final long DEFAULT_MINIMUM_SEGMENT_SIZE = 1 << 20;
+
+	private final String host;
+	private final int port;
+	private final String user;
+	private final String password;
+
+	private int segmentCount = DEFAULT_SEGMENT_COUNT;
+	private int segmentRetries = DEFAULT_SEGMENT_RETRIES;
+	private long minimumSegmentSize = DEFAULT_MINIMUM_SEGMENT_SIZE;
+
+	/**
+	 * Creates a <code>SegmentedTransfer</code> that logs in to the provided
+	 * host on the provided port.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 */
+	public SegmentedTransfer(String host, int port, String user, String password) {
+		this.host = host;
+		this.port = port;
+		this.user = user;
+		this.password = password;
+	}
+
+	/**
+	 * Sets the maximum number of segments, and therefore connections,
+	 * used for a transfer.
+	 * @param segmentCount the segment count
+	 */
+	public void setSegmentCount(int segmentCount) {
+		if (segmentCount < 1) throw new IllegalArgumentException();
+		this.segmentCount = segmentCount;
+	}
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * Sets the number of times a failed segment is retried before
+	 * the transfer fails.
+	 * @param segmentRetries the retry count
+	 */
+	public void setSegmentRetries(int segmentRetries) {
+		if (segmentRetries < 0) throw new IllegalArgumentException();
+		this.segmentRetries = segmentRetries;
+	}
+	public int getSegmentRetries() {
+		return segmentRetries;
+	}
+
+	/**
+	 * Sets the smallest size a segment may have. Files smaller than
+	 * twice this size are transferred over a single connection.
+	 * @param minimumSegmentSize the minimum segment size
+	 */
+	public void setMinimumSegmentSize(long minimumSegmentSize) {
+		if (minimumSegmentSize < 1) throw new IllegalArgumentException();
+		this.minimumSegmentSize = minimumSegmentSize;
+	}
+	public long getMinimumSegmentSize() {
+		return minimumSegmentSize;
+	}
+
+	/**
+	 * Gets the number of segments a file of the provided size
+	 * should be split into.
+	 * @param size the file size, or a negative value if unknown
+	 * @return the segment count
+	 */
+	protected int getSegments(long size) {
+		if (size <= 0) return 1;
+		return (int) Math.max(1, Math.min(segmentCount, size / minimumSegmentSize));
+	}
+
+	/**
+	 * Transfers the segments from <code>first</code> up to <code>segments</code>
+	 * of a file of the provided size concurrently.
+	 * <p>
+	 * This method blocks until every segment has been transferred or one
+	 * of them has failed more than the allowed number of times.
+	 * @param file the remote file
+	 * @param local the local file
+	 * @param size the file size
+	 * @param segments the segment count
+	 * @param first the first segment to transfer
+	 * @return the number of bytes transferred
+	 * @throws IOException if a segment fails
+	 */
+	protected long transferSegments(final FTPObject file, final Path local, long size, int segments, int first) throws IOException {
+		if (first >= segments) return 0;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(segments - first, new SegmentThreadFactory(file));
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>(segments - first);
+			for (int i = first; i < segments; i++) {
+				final long offset = getSegmentOffset(size, segments, i);
+				final long length = getSegmentOffset(size, segments, i + 1) - offset;
+				results.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return transferSegment(file, local, offset, length);
+					}
+				}));
+			}
+
+			long total = 0;
+			for (Future<Long> result : results) total += result.get();
+			return total;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the offset of the provided segment. The last segment
+	 * absorbs the remainder of the division.
+	 * @param size the file size
+	 * @param segments the segment count
+	 * @param segment the segment index
+	 * @return the segment offset
+	 */
+	protected long getSegmentOffset(long size, int segments, int segment) {
+		if (segment >= segments) return size;
+		return segment * (size / segments);
+	}
+
+	/**
+	 * Transfers a single segment, retrying it on a new session if it fails.
+	 * <p>
+	 * If the transfer is resumable, a retry continues after the bytes the
+	 * failed attempt committed instead of starting the segment over.
+	 * @param file the remote file
+	 * @param local the local file
+	 * @param offset the segment offset
+	 * @param length the segment length
+	 * @return the number of bytes transferred
+	 * @throws IOException if the segment fails more than the allowed number of times
+	 */
+	protected long transferSegment(FTPObject file, Path local, long offset, long length) throws IOException {
+		IOException failure = null;
+		long committed = 0;
+		for (int attempt = 0; attempt <= segmentRetries; attempt++) {
+			SocketFTPClient session = null;
+			try {
+				session = openSession();
+				FTPResult result = queueSegment(session, file, local, offset + committed, length - committed).getResult();
+				if (result.isSuccessful() && result.getTransferredBytes() == length - committed) return length;
+				if (isResumable()) committed += result.getTransferredBytes();
+				failure = new IOException("segment at " + offset + " failed");
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				if (session != null) session.close();
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Gets whether the bytes committed by a failed segment attempt are kept
+	 * when the segment is retried. The default implementation returns
+	 * <code>false</code>.
+	 * @return whether segments are resumable
+	 */
+	protected boolean isResumable() {
+		return false;
+	}
+
+	/**
+	 * Queues the transfer of a single segment on the provided session.
+	 * <p>
+	 * Subclasses of <code>SegmentedTransfer</code> should implement this method.
+	 * @param session the session to use
+	 * @param file the remote file
+	 * @param local the local file
+	 * @param offset the segment offset
+	 * @param length the segment length
+	 * @return a ftp future representing the segment
+	 * @throws IOException
+	 */
+	protected abstract FTPFuture queueSegment(SocketFTPClient session, FTPObject file, Path local, long offset, long length) throws IOException;
+
+	/**
+	 * Opens a new session and logs in.
+	 * @return a logged in client
+	 * @throws IOException if the login fails
+	 */
+	protected SocketFTPClient openSession() throws IOException {
+		SocketFTPClient client = new SocketFTPClient(host, port);
+		if (!client.connect(user, password).getResult().isSuccessful()) {
+			client.close();
+			throw new IOException("login failed");
+		}
+		return client;
+	}
+
+	private static class SegmentThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public SegmentThreadFactory(FTPObject file) {
+			this.prefix = "FTPL-SEG-" + file.getName() + "-";
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
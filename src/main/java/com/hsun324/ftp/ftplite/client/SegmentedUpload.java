@@ -0,0 +1,86 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.hsun324.ftp.ftplite.FTPFuture;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+
+/**
+ * An upload engine that stores a single large local file over several
+ * connections at once.
+ * <p>
+ * The local file is split into ranges and each range is stored with
+ * REST and STOR on its own {@link SocketFTPClient} session. The first
+ * range is stored on its own before the others, since a STOR without
+ * REST truncates the remote file; the remaining ranges are then stored
+ * concurrently.
+ * <p>
+ * If the server does not advertise <code>REST STREAM</code> in its
+ * features, or the file is too small to be worth splitting, the file
+ * is stored over a single connection.
+ * @author hsun324
+ * @version 0.7
+ */
+public class SegmentedUpload extends SegmentedTransfer {
+	/**
+	 * Creates a <code>SegmentedUpload</code> that logs in to the provided
+	 * host on the default FTP port.
+	 * @param host address to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 */
+	public SegmentedUpload(String host, String user, String password) {
+		this(host, SocketFTPClient.DEFAULT_FTP_SERVER_PORT, user, password);
+	}
+
+	/**
+	 * Creates a <code>SegmentedUpload</code> that logs in to the provided
+	 * host on the provided port.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param user the user to connect as
+	 * @param password the password to use
+	 */
+	public SegmentedUpload(String host, int port, String user, String password) {
+		super(host, port, user, password);
+	}
+
+	/**
+	 * Stores the provided local file into the file denoted by the file.
+	 * <p>
+	 * This method blocks until every segment has been stored or one
+	 * of them has failed more than the allowed number of times.
+	 * @param source the local file to upload
+	 * @param file the file to write to
+	 * @return the number of bytes stored
+	 * @throws IOException if the upload fails
+	 */
+	public long upload(Path source, FTPObject file) throws IOException {
+		long size = Files.size(source);
+		int segments = getSegments(size);
+
+		SocketFTPClient probe = openSession();
+		try {
+			if (!probe.getInterface().isFeatureSupported(Feature.RESTART)) segments = 1;
+			if (segments == 1) {
+				FTPResult result = probe.writeFileRange(file, source, 0, -1).getResult();
+				if (!result.isSuccessful()) throw new IOException("upload failed");
+				return result.getTransferredBytes();
+			}
+		} finally {
+			probe.close();
+		}
+
+		long first = transferSegment(file, source, 0, getSegmentOffset(size, segments, 1));
+		return first + transferSegments(file, source, size, segments, 1);
+	}
+
+	@Override
+	protected FTPFuture queueSegment(SocketFTPClient session, FTPObject file, Path local, long offset, long length) throws IOException {
+		return session.writeFileRange(file, local, offset, length);
+	}
+}
@@ -0,0 +1,92 @@
+package com.hsun324.ftp.ftplite.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * This class is an implementation of a {@link FTPClient} whose control
+ * connection is served by a shared {@link FTPEventLoopGroup} instead of a
+ * thread of its own.
+ * <p>
+ * Replies are read from a non-blocking <code>SocketChannel</code> when the
+ * loop's <code>Selector</code> reports it readable and drive the same
+ * command state machine as {@link SocketFTPClient}. Idle sessions cost no
+ * threads, which allows a single JVM to hold tens of thousands of them.
+ * 
+ * @author hsun324
+ * @version 0.7
+ */
+public class SelectorFTPClient extends SocketFTPClient {
+	private final FTPSelectorSession session;
+	
+	/**
+	 * Creates a <code>SelectorFTPClient</code> bound to the provided host using the
+	 * default FTP port and served by the provided group.
+	 * @param group the group that serves the connection
+	 * @param host address to connect to
+	 */
+	public SelectorFTPClient(FTPEventLoopGroup group, String host) {
+		this(group, host, DEFAULT_FTP_SERVER_PORT);
+	}
+	
+	/**
+	 * Creates a <code>SelectorFTPClient</code> bound to the provided host using the
+	 * provided port and served by the provided group.
+	 * @param group the group that serves the connection
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 */
+	public SelectorFTPClient(FTPEventLoopGroup group, String host, int port) {
+		super(host, port);
+		if (group == null) throw new IllegalArgumentException();
+		this.session = group.newSession(this, getDispatcher());
+	}
+	
+	@Override
+	protected Executor getTransferExecutor() {
+		return session.getWorkerExecutor();
+	}
+	
+	/**
+	 * Starts opening the control connection on the loop, before
+	 * <code>connect</code> is called. The server's greeting is left unread
+	 * until the login is queued.
+	 */
+	@Override
+	public void preconnect() {
+		FTPInterface inter = getInterface();
+		session.connect(new InetSocketAddress(inter.getHost(), inter.getPort()), false);
+	}
+	
+	@Override
+	protected void beginConnection() {
+		FTPInterface inter = getInterface();
+		session.connect(new InetSocketAddress(inter.getHost(), inter.getPort()), true);
+	}
+	
+	@Override
+	protected void closeConnection() throws IOException {
+		super.closeConnection();
+		session.close();
+	}
+	
+	@Override
+	protected InputStream getInputStream() throws IOException {
+		throw new IOException("replies are read by the event loop");
+	}
+	
+	@Override
+	protected OutputStream getOutputStream() throws IOException {
+		if (getInterface().isClosed()) throw new IOException("client closed");
+		return session.getOutputStream();
+	}
+	
+	@Override
+	protected void sendUrgentData(int data) throws IOException {
+		if (getInterface().isClosed()) throw new IOException("client closed");
+		session.writeUrgent(data);
+	}
+}
@@ -3,26 +3,49 @@ package com.hsun324.ftp.ftplite.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.hsun324.ftp.ftplite.FTPBufferPool;
 import com.hsun324.ftp.ftplite.FTPFuture;
 import com.hsun324.ftp.ftplite.FTPObject;
 import com.hsun324.ftp.ftplite.FTPResult;
 import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
 import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
 import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+import com.hsun324.ftp.ftplite.client.FTPInterface.QueuePolicy;
 import com.hsun324.ftp.ftplite.commands.*;
 
 /**
  * This class is an implementation of a {@link
  * FTPClient} over a insecure <code>Socket</code>
  * layer.
+ * <p>
+ * Each client runs its response loop and its connection attempt on
+ * threads of its {@link ExecutionMode}. On runtimes that support them,
+ * {@link ExecutionMode#VIRTUAL} clients use virtual threads, which makes
+ * thousands of concurrent sessions affordable.
+ * <p>
+ * Session state is read by the threads that queue commands as well as by
+ * the response thread, so it is kept in volatile fields and read without
+ * locking. The {@link ClientState} changes by compare and set, and once
+ * the client starts closing it only moves on to {@link ClientState#CLOSED}.
  * 
  * @author hsun324
  * @version 0.7
@@ -35,33 +58,77 @@ public class SocketFTPClient extends FTPClient {
 	 */
 	public static final int DEFAULT_FTP_SERVER_PORT = 21;
 	
+	/**
+	 * Telnet Interpret As Command, Interrupt Process and Data Mark codes,
+	 * used to interrupt the server before an ABOR command.
+	 */
+	private static final byte TELNET_IAC = (byte) 255, TELNET_IP = (byte) 244, TELNET_DM = (byte) 242;
+	
+	/**
+	 * The kinds of threads a client can run its loops on.
+	 */
+	public static enum ExecutionMode {
+		/**
+		 * Runs the client loops on platform threads.
+		 */
+		PLATFORM,
+		/**
+		 * Runs the client loops on virtual threads if the runtime
+		 * supports them, otherwise on platform threads.
+		 */
+		VIRTUAL;
+		
+		/**
+		 * Gets whether this mode is supported by the current runtime.
+		 * @return whether the mode is supported
+		 */
+		public boolean isSupported() {
+			return this == PLATFORM || FTPThreads.isVirtualSupported();
+		}
+	}
+	
 	private final String host;
 	private final int port;
 	
-	private final List<FTPFuture> queue = new ArrayList<FTPFuture>();
+	private final Queue<FTPFuture> queue = new ConcurrentLinkedQueue<FTPFuture>();
 	
 	private Socket connection = null;
-	private final Object connectionSync = new Object();
+	private final Lock connectionLock = new ReentrantLock();
+	private final Condition connectionChanged = connectionLock.newCondition();
 
-	private final FTPClientThread thread;
+	private final ExecutionMode executionMode;
+	private final FTPClientThread loop;
+	private Thread thread = null;
+	private final AtomicBoolean connectorStarted = new AtomicBoolean();
+	private final FTPCommandDispatcher dispatcher;
 	
-	private ClientState clientState = ClientState.UNOPENED;
-	private ModeCommand modeCommand = new ModeCommandPassive();
-	private String dataHost = null;
-	private int dataPort = 0;
+	private final AtomicReference<ClientState> clientState = new AtomicReference<ClientState>(ClientState.UNOPENED);
+	private volatile ModeCommand modeCommand = new ModeCommandPassive();
+	private volatile String dataHost = null;
+	private volatile int dataPort = 0;
+	private volatile int pipelineWindow = 1;
+	private volatile FTPWireTrace wireTrace = null;
+	private volatile FTPCapabilityCache capabilityCache = null;
+	private volatile int connectTimeout = 0;
+	private volatile int readTimeout = 0;
+	private volatile long commandTimeout = 0;
+	private volatile long minimumThroughput = 0;
+	private volatile long throughputPeriod = 0;
 
 	private final UUID uuid;
 	
-	private FTPFuture currentFuture = null;
-	private Object futureSync = new Object();
+	private volatile FTPFuture currentFuture = null;
+	
+	private volatile FTPObject currentDirectory = FTPObject.ROOT_DIRECTORY;
+	private volatile boolean currentDirectoryKnown = false;
+	private volatile FTPFiletype currentFiletype = null;
 	
-	private FTPObject currentDirectory = FTPObject.ROOT_DIRECTORY;
-	private FTPFiletype currentFiletype = FTPFiletype.ASCII;
+	private final Map<String, AtomicLong> elidedCommands = new ConcurrentHashMap<String, AtomicLong>();
 	
 	private final SocketFTPClientInterface inter = new SocketFTPClientInterface();
 
-	private final Map<Feature, Boolean> supportedFeatures = new HashMap<Feature, Boolean>();
-	private String[] metadataParams = new String[0];
+	private final Map<Feature, Boolean> supportedFeatures = new ConcurrentHashMap<Feature, Boolean>();
+	private volatile String[] metadataParams = new String[0];
 	
 	/**
 	 * Creates a <code>FTPClient</code> bound to the provided host using the default FTP port.
@@ -77,28 +144,103 @@ public class SocketFTPClient extends FTPClient {
 	 * @param port port to connect to
 	 */
 	public SocketFTPClient(String host, int port) {
+		this(host, port, ExecutionMode.PLATFORM);
+	}
+	
+	/**
+	 * Creates a <code>FTPClient</code> bound to the provided host using the provided port
+	 * that runs its loops on threads of the provided execution mode.
+	 * @param host address to connect to
+	 * @param port port to connect to
+	 * @param mode the execution mode
+	 */
+	public SocketFTPClient(String host, int port, ExecutionMode mode) {
 		super();
+		if (mode == null) throw new IllegalArgumentException();
 		this.host = host;
 		this.port = port;
 		this.uuid = UUID.randomUUID();
+		this.executionMode = mode;
 		
-		this.thread = new FTPClientThread(this);
+		this.dispatcher = new FTPCommandDispatcher(inter);
+		this.loop = new FTPClientThread(this, dispatcher);
+	}
+	
+	/**
+	 * Gets the execution mode this client was created with.
+	 * @return the execution mode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+	
+	/**
+	 * Gets the executor that runs this client's data transfers, so that the
+	 * control connection is read while data moves. The default implementation
+	 * starts a thread of the client's {@link ExecutionMode} for each transfer.
+	 * @return the transfer executor
+	 */
+	protected Executor getTransferExecutor() {
+		return new Executor() {
+			@Override
+			public void execute(final Runnable transfer) {
+				FTPThreads.newThread(executionMode, "FTPL_TRANSFER_" + getUniqueString(), true, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							transfer.run();
+						} finally {
+							// hand the buffers of this short-lived thread back to the shared pool
+							FTPBufferPool.flushThreadCaches();
+						}
+					}
+				}).start();
+			}
+		};
+	}
+	
+	/**
+	 * Gets the dispatcher that moves this client's commands to the server.
+	 * @return the dispatcher
+	 */
+	FTPCommandDispatcher getDispatcher() {
+		return dispatcher;
 	}
 	
 	@Override
 	protected FTPFuture queueCommandUnsafe(Command command) throws IOException {
-		synchronized (queue) {
-			FTPFuture future = new FTPFuture(this, inter, command);
-			queue.add(future);
-			queue.notify();
-			return future;
-		}
+		FTPFuture future = new FTPFuture(this, inter, command);
+		dispatcher.offer(future);
+		if (commandTimeout > 0 && !future.usesDataChannel()) future.setDeadline(commandTimeout, TimeUnit.MILLISECONDS);
+		return future;
 	}
 
+	/**
+	 * Starts opening the control connection in the background, before
+	 * <code>connect</code> is called. This is best called right after the
+	 * client is constructed, so that the TCP handshake overlaps with
+	 * whatever the caller does before logging in. The server's greeting
+	 * waits on the connection until the login is queued.
+	 * <p>
+	 * Calling this method more than once, or after <code>connect</code>,
+	 * does nothing.
+	 */
+	public void preconnect() {
+		startConnector();
+	}
+	
 	@Override
 	protected void beginConnection() {
+		thread = FTPThreads.newThread(executionMode, loop.getName(), false, loop);
 		thread.start();
-		new SocketThread(this).start();
+		
+		startConnector();
+	}
+	
+	private void startConnector() {
+		if (!connectorStarted.compareAndSet(false, true)) return;
+		SocketThread connector = new SocketThread(this);
+		FTPThreads.newThread(executionMode, connector.getName(), true, connector).start();
 	}
 	
 	@Override
@@ -108,11 +250,15 @@ public class SocketFTPClient extends FTPClient {
 			future.quitExecution();
 			if (!future.isResultSet()) future.setResult(FTPResult.FAILED);
 		}
+		dispatcher.failAll();
 
-		thread.interrupt();
+		if (thread != null) thread.interrupt();
 		
-		synchronized (connectionSync) {
-			connectionSync.notifyAll();
+		connectionLock.lock();
+		try {
+			connectionChanged.signalAll();
+		} finally {
+			connectionLock.unlock();
 		}
 		
 		if (connection != null) {
@@ -137,23 +283,35 @@ public class SocketFTPClient extends FTPClient {
 		return connectionOutputStream; 
 	}
 	
+	@Override
+	protected void sendUrgentData(int data) throws IOException {
+		if (inter.isClosed()) throw new IOException("client closed");
+		getOutputStream().flush();
+		getConnection().sendUrgentData(data);
+	}
+	
 	protected Socket getConnection() throws IOException {
-		synchronized (connectionSync) {
-			try {
-				if (inter.isClosed()) throw new IOException("client closed");
-				while (connection == null && !inter.isClosing()) connectionSync.wait();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				return null;
-			}
+		connectionLock.lock();
+		try {
+			if (inter.isClosed()) throw new IOException("client closed");
+			while (connection == null && !inter.isClosing() && !inter.isClosed()) connectionChanged.await();
+			if (connection == null) throw new IOException("client closed");
 			return connection;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the connection", e);
+		} finally {
+			connectionLock.unlock();
 		}
 	}
 	protected void setConnection(Socket socket) {
-		synchronized (connectionSync) {
+		connectionLock.lock();
+		try {
 			if (connection != null) throw new IllegalStateException();
 			connection = socket;
-			connectionSync.notifyAll();
+			connectionChanged.signalAll();
+		} finally {
+			connectionLock.unlock();
 		}
 	}
 
@@ -161,7 +319,15 @@ public class SocketFTPClient extends FTPClient {
 		return new Callable<Socket>() {
 			@Override
 			public Socket call() throws Exception {
-				return new Socket(host, port);
+				Socket socket = new Socket();
+				try {
+					socket.connect(new InetSocketAddress(host, port), connectTimeout);
+					socket.setSoTimeout(readTimeout);
+					return socket;
+				} catch (IOException e) {
+					socket.close();
+					throw e;
+				}
 			}
 		};
 	}
@@ -183,75 +349,81 @@ public class SocketFTPClient extends FTPClient {
 	
 		@Override
 		public boolean isConnected() {
-			synchronized (clientState) {
-				return clientState.isConnected();
-			}
+			return clientState.get().isConnected();
 		}
 		@Override
 		public boolean isClosing() {
-			synchronized (clientState) {
-				return clientState == ClientState.CLOSING;
-			}
+			return clientState.get() == ClientState.CLOSING;
 		}
 		@Override
 		public boolean isClosed() {
-			synchronized (clientState) {
-				return clientState == ClientState.CLOSED;
-			}
+			return clientState.get() == ClientState.CLOSED;
 		}
 	
 		@Override
 		public void setClientState(ClientState state) {
-			synchronized (clientState) {
-				clientState = state;
-			}
+			ClientState current;
+			do {
+				current = clientState.get();
+				if (!canTransition(current, state)) return;
+			} while (!clientState.compareAndSet(current, state));
+		}
+		@Override
+		public boolean compareAndSetClientState(ClientState expect, ClientState update) {
+			return canTransition(expect, update) && clientState.compareAndSet(expect, update);
 		}
 		@Override
 		public ClientState getClientState() {
-			synchronized (clientState) {
-				return clientState;
-			}
+			return clientState.get();
+		}
+		
+		/**
+		 * Gets whether the client may move from one state to another. A
+		 * closing client may only become closed and a closed client stays
+		 * closed, so late replies cannot reopen the session.
+		 */
+		private boolean canTransition(ClientState from, ClientState to) {
+			if (from == ClientState.CLOSED) return false;
+			if (from == ClientState.CLOSING) return to == ClientState.CLOSED;
+			return true;
 		}
 	
 		@Override
 		public void setModeCommand(ModeCommand command) {
-			synchronized (modeCommand) {
-				modeCommand = command;
-			}
+			modeCommand = command;
 		}
 		@Override
 		public ModeCommand getModeCommand() {
-			synchronized (modeCommand) {
-				return modeCommand;
-			}
+			return modeCommand;
 		}
 	
 		@Override
 		public void setFeatureSupported(Feature feature, boolean supported) {
-			synchronized (supportedFeatures) {
-				supportedFeatures.put(feature, supported);
-			}
+			supportedFeatures.put(feature, supported);
 		}
 		@Override
 		public boolean isFeatureSupported(Feature feature) {
-			synchronized (supportedFeatures) {
-				Boolean supported = supportedFeatures.get(feature);
-				if (supported != null) return supported;
-				return false;
-			}
+			Boolean supported = supportedFeatures.get(feature);
+			if (supported != null) return supported;
+			return false;
 		}
 	
 		@Override
 		public void setCurrentDirectory(FTPObject directory) {
-			synchronized (currentDirectory) {
-				currentDirectory = directory;
-			}
+			currentDirectory = directory;
+			currentDirectoryKnown = true;
 		}
 		@Override
 		public FTPObject getCurrentDirectory() {
-			synchronized (currentDirectory) {
-				return currentDirectory;
-			}
+			return currentDirectory;
+		}
+		@Override
+		public void invalidateCurrentDirectory() {
+			currentDirectoryKnown = false;
+		}
+		@Override
+		public boolean isCurrentDirectoryKnown() {
+			return currentDirectoryKnown;
 		}
 	
 		@Override
@@ -262,18 +434,96 @@ public class SocketFTPClient extends FTPClient {
 		public FTPFiletype getCurrentFiletype() {
 			return currentFiletype;
 		}
+		
+		@Override
+		public void recordElidedCommand(String command) {
+			AtomicLong count = elidedCommands.get(command);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = elidedCommands.putIfAbsent(command, created);
+				if (count == null) count = created;
+			}
+			count.incrementAndGet();
+		}
+		@Override
+		public Map<String, Long> getElidedCommandCounts() {
+			Map<String, Long> counts = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> entry : elidedCommands.entrySet()) counts.put(entry.getKey(), entry.getValue().get());
+			return counts;
+		}
+	
+		@Override
+		public void setPipelineWindow(int window) {
+			pipelineWindow = window;
+		}
+		@Override
+		public int getPipelineWindow() {
+			return pipelineWindow;
+		}
+	
+		@Override
+		public void setConnectTimeout(int timeout) {
+			connectTimeout = timeout;
+		}
+		@Override
+		public int getConnectTimeout() {
+			return connectTimeout;
+		}
+		@Override
+		public void setReadTimeout(int timeout) {
+			readTimeout = timeout;
+		}
+		@Override
+		public int getReadTimeout() {
+			return readTimeout;
+		}
+		@Override
+		public void setCommandTimeout(long timeout) {
+			commandTimeout = timeout;
+		}
+		@Override
+		public long getCommandTimeout() {
+			return commandTimeout;
+		}
+		@Override
+		public void setMinimumThroughput(long bytesPerSecond, long period) {
+			throughputPeriod = period;
+			minimumThroughput = bytesPerSecond;
+		}
+		@Override
+		public long getMinimumThroughput() {
+			return minimumThroughput;
+		}
+		@Override
+		public long getThroughputPeriod() {
+			return throughputPeriod;
+		}
+	
+		@Override
+		public void setWireTrace(FTPWireTrace trace) {
+			wireTrace = trace;
+		}
+		@Override
+		public FTPWireTrace getWireTrace() {
+			return wireTrace;
+		}
+		
+		@Override
+		public void setCapabilityCache(FTPCapabilityCache cache) {
+			capabilityCache = cache;
+		}
+		@Override
+		public FTPCapabilityCache getCapabilityCache() {
+			return capabilityCache;
+		}
 	
 		@Override
 		public void setFuture(FTPFuture future) {
-			synchronized (futureSync) {
-				currentFuture = future;
-			}
+			currentFuture = future;
 		}
 		@Override
 		public FTPFuture getFuture() {
-			synchronized (futureSync) {
-				return currentFuture;
-			}
+			return currentFuture;
 		}
 		@Override
 		public void setMetadataParameters(String[] params) {
@@ -300,7 +550,27 @@ public class SocketFTPClient extends FTPClient {
 		
 		@Override
 		public void writeBytes(byte[] bytes) throws IOException {
-			getOutputStream().write(bytes);
+			writeBytes(bytes, 0, bytes.length);
+		}
+		@Override
+		public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+			FTPWireTrace trace = wireTrace;
+			if (trace != null) trace.recordSent(Arrays.copyOfRange(bytes, offset, offset + length));
+			getOutputStream().write(bytes, offset, length);
+		}
+		@Override
+		public Executor getTransferExecutor() {
+			return SocketFTPClient.this.getTransferExecutor();
+		}
+		@Override
+		public void signalCompletion() {
+			dispatcher.signalCompletion();
+		}
+		
+		@Override
+		public void writeInterrupt() throws IOException {
+			getOutputStream().write(new byte[] { TELNET_IAC, TELNET_IP, TELNET_IAC });
+			sendUrgentData(TELNET_DM);
 		}
 		
 		@Override
@@ -321,9 +591,33 @@ public class SocketFTPClient extends FTPClient {
 		}
 		
 		@Override
-		public List<FTPFuture> getCommandQueue() {
+		public Queue<FTPFuture> getCommandQueue() {
 			return queue;
 		}
+		@Override
+		public boolean removeQueuedCommand(FTPFuture future) {
+			return dispatcher.remove(future);
+		}
+		@Override
+		public int getCommandQueueDepth() {
+			return dispatcher.getDepth();
+		}
+		@Override
+		public void setCommandQueueCapacity(int capacity) {
+			dispatcher.setCapacity(capacity);
+		}
+		@Override
+		public int getCommandQueueCapacity() {
+			return dispatcher.getCapacity();
+		}
+		@Override
+		public void setQueuePolicy(QueuePolicy policy, long timeout, TimeUnit unit) {
+			dispatcher.setPolicy(policy, timeout, unit);
+		}
+		@Override
+		public QueuePolicy getQueuePolicy() {
+			return dispatcher.getPolicy();
+		}
 		
 		@Override
 		public void close() throws IOException {
@@ -1,13 +1,20 @@
 package com.hsun324.ftp.ftplite.client;
 
-public class SocketThread extends Thread {
+import java.io.IOException;
+
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+
+public class SocketThread implements Runnable {
 	private final SocketFTPClient client;
 	public SocketThread(SocketFTPClient client) {
 		super();
 		
 		this.client = client;
-		this.setName("FTPL-SCT-" + client.getUniqueString());
-		this.setDaemon(true);
+	}
+	
+	public String getName() {
+		return "FTPL-SCT-" + client.getUniqueString();
 	}
 	
 	@Override
@@ -15,7 +22,13 @@ public class SocketThread extends Thread {
 		try {
 			client.setConnection(client.getSocketFactory().call());
 		} catch (Exception e) {
-			e.printStackTrace();
+			// a client that cannot connect is closed, failing every queued command
+			FTPLog.log(Level.ERROR, "connection to " + client.getInterface().getHost() + " failed", e);
+			try {
+				client.close();
+			} catch (IOException ex) {
+				// TODO: Exceptions
+			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package com.hsun324.ftp.ftplite.commands;
 
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.hsun324.ftp.ftplite.FTPResponse;
 import com.hsun324.ftp.ftplite.FTPResult;
@@ -14,6 +16,14 @@ import com.hsun324.ftp.ftplite.client.FTPInterface;
  * The current implementation of this class uses a blocking <code>execute</code>
  * method and therefore requires the use of <code>quitExecution</code> to
  * allow the command queue thread to successfully terminate.
+ * <p>
+ * A chain that does not short circuit and only contains pipelinable commands
+ * is itself pipelinable. When executed as part of a pipeline, all commands of
+ * the chain are written at once instead of one per round trip. A chain
+ * created with <code>pipelined</code> always writes its commands at once.
+ * <p>
+ * Aborting a chain aborts its current command if that command supports it
+ * and fails the chain once the current command completes.
  * @author hsun324
  * @version 0.7
  */
@@ -25,11 +35,37 @@ public class ChainedCommand extends Command {
 	
 	private final boolean isShortCircuit;
 	
-	private Command currentCommand = null;
+	private volatile Command currentCommand = null;
 	private int currentCommandIndex = 0;
+	
+	/**
+	 * Lock that keeps an abort from racing with the start of the next command.
+	 */
+	private final Lock advanceLock = new ReentrantLock();
+	
+	/**
+	 * Flag indicating whether the chain was aborted.
+	 */
+	private boolean aborted = false;
+	
+	/**
+	 * Flag indicating whether the chain has produced its result.
+	 */
+	private boolean completed = false;
 
 	private FTPResult totalResult = new FTPResult(true);
 	
+	/**
+	 * Flag indicating whether all commands were written up front.
+	 */
+	private boolean pipelined = false;
+	
+	/**
+	 * Flag indicating whether the commands are written at once even when
+	 * the chain is not executed as part of a pipeline.
+	 */
+	private boolean alwaysPipelined = false;
+	
 	/**
 	 * Create a <code>FTPCommandChained</code> with the provided commands that
 	 * will short circuit, or quit after one failed command.
@@ -50,32 +86,166 @@ public class ChainedCommand extends Command {
 		this.isShortCircuit = isShortCircuit;
 	}
 	
+	/**
+	 * Creates a <code>FTPCommandChained</code> that does not short circuit and
+	 * writes all of its commands at once whenever it is executed, regardless
+	 * of the client's pipeline window.
+	 * @param commands the pipelinable commands to chain
+	 * @return the chain
+	 */
+	public static ChainedCommand pipelined(Command... commands) {
+		ChainedCommand chain = new ChainedCommand(false, commands);
+		if (!chain.isPipelinable()) throw new IllegalArgumentException();
+		chain.alwaysPipelined = true;
+		return chain;
+	}
+	
 	@Override
 	public void execute(FTPInterface inter) throws IOException {
+		if (alwaysPipelined) {
+			executePipelined(inter);
+			return;
+		}
 		if (commands.length == 0) return;
 		
 		currentCommand = commands[0];
 		currentCommand.execute(inter);
 	}
 
+	/**
+	 * Executes the chain, skipping the commands whose result is known
+	 * without asking the server. The chain completes at once if every
+	 * command is skipped.
+	 */
+	@Override
+	public FTPResult executeOrElide(FTPInterface inter) throws IOException {
+		if (alwaysPipelined) {
+			executePipelined(inter);
+			return null;
+		}
+		
+		advanceLock.lock();
+		try {
+			return start(inter);
+		} finally {
+			advanceLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isPipelinable() {
+		if (isShortCircuit) return false;
+		for (Command command : commands)
+			if (!command.isPipelinable()) return false;
+		return true;
+	}
+	
+	@Override
+	public boolean usesDataChannel() {
+		for (Command command : commands)
+			if (command.usesDataChannel()) return true;
+		return false;
+	}
+	
+	@Override
+	public void executePipelined(FTPInterface inter) throws IOException {
+		if (!isPipelinable()) {
+			execute(inter);
+			return;
+		}
+		if (commands.length == 0) return;
+		
+		pipelined = true;
+		currentCommand = commands[0];
+		for (Command command : commands) command.executePipelined(inter);
+	}
+
+	@Override
+	public boolean abort(FTPInterface inter) throws IOException {
+		if (pipelined) return false;
+		
+		advanceLock.lock();
+		try {
+			if (currentCommand == null || completed) return false;
+			aborted = true;
+			currentCommand.abort(inter);
+			return true;
+		} finally {
+			advanceLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isAwaitingReply() {
+		Command current = currentCommand;
+		return current == null || current.isAwaitingReply();
+	}
+
 	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		FTPResult result = currentCommand.handleResponse(inter, response);
-		if (result != null) {
+		if (result != null) return advance(inter, result);
+		return null;
+	}
+	
+	@Override
+	public FTPResult handleCompletion(FTPInterface inter) {
+		FTPResult result = currentCommand.handleCompletion(inter);
+		if (result != null) return advance(inter, result);
+		return null;
+	}
+	
+	/**
+	 * Records the result of the current command and starts the next one.
+	 * @param inter the current client state
+	 * @param result the result of the current command
+	 * @return the result of the chain or <code>null</code> if it continues
+	 */
+	private FTPResult advance(FTPInterface inter, FTPResult result) {
+		advanceLock.lock();
+		try {
 			totalResult = totalResult.or(result);
 			
 			++currentCommandIndex;
 			
-			if (isShortCircuit && !totalResult.isSuccessful()) return totalResult;
-			if (currentCommandIndex >= commands.length) return totalResult;
+			if (aborted) return totalResult.or(FTPResult.FAILED);
+			if (isShortCircuit && !totalResult.isSuccessful() || currentCommandIndex >= commands.length) {
+				completed = true;
+				return totalResult;
+			}
 			
-			try {
+			if (pipelined) {
 				currentCommand = commands[currentCommandIndex];
-				currentCommand.execute(inter);
-			} catch (IOException e) {
-				return totalResult.or(FTPResult.FAILED);
+				return null;
 			}
+			return start(inter);
+		} catch (IOException e) {
+			return totalResult.or(FTPResult.FAILED);
+		} finally {
+			advanceLock.unlock();
 		}
-		return null;
+	}
+	
+	/**
+	 * Starts the current command, skipping it and the commands after it
+	 * for as long as their results are known without asking the server.
+	 * Must be called while holding the advance lock.
+	 * @param inter the current client state
+	 * @return the result of the chain if every remaining command was skipped,
+	 * otherwise <code>null</code>
+	 * @throws IOException
+	 */
+	private FTPResult start(FTPInterface inter) throws IOException {
+		while (currentCommandIndex < commands.length) {
+			currentCommand = commands[currentCommandIndex];
+			FTPResult result = currentCommand.executeOrElide(inter);
+			if (result == null) return null;
+			
+			totalResult = totalResult.or(result);
+			++currentCommandIndex;
+			if (isShortCircuit && !totalResult.isSuccessful()) break;
+		}
+		completed = true;
+		return totalResult;
 	}
 }
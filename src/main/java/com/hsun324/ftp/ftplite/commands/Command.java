@@ -1,6 +1,8 @@
 package com.hsun324.ftp.ftplite.commands;
 
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.hsun324.ftp.ftplite.FTPFuture;
 import com.hsun324.ftp.ftplite.FTPResponse;
@@ -17,8 +19,18 @@ import com.hsun324.ftp.ftplite.client.FTPInterface;
  * @version 0.7
  */
 public abstract class Command {
-	public synchronized final void run(FTPInterface inter) throws IOException {
-		execute(inter);
+	/**
+	 * Command execution lock.
+	 */
+	private final Lock commandLock = new ReentrantLock();
+	
+	public final void run(FTPInterface inter) throws IOException {
+		commandLock.lock();
+		try {
+			execute(inter);
+		} finally {
+			commandLock.unlock();
+		}
 	}
 
 	/**
@@ -31,6 +43,72 @@ public abstract class Command {
 	 */
 	public abstract void execute(FTPInterface inter) throws IOException;
 	
+	/**
+	 * Gets whether this command may be written to the server while replies
+	 * to earlier commands are still outstanding.
+	 * <p>
+	 * Only commands that are answered by exactly one final reply and that
+	 * do not use the data channel should be pipelinable. The default
+	 * implementation returns <code>false</code>.
+	 * @return whether this command is pipelinable
+	 */
+	public boolean isPipelinable() {
+		return false;
+	}
+	
+	/**
+	 * Gets whether this command opens a data channel, in which case its
+	 * execution and response handling may block for the whole transfer.
+	 * <p>
+	 * The default implementation returns <code>false</code>.
+	 * @return whether this command uses the data channel
+	 */
+	public boolean usesDataChannel() {
+		return false;
+	}
+	
+	/**
+	 * Gets whether this command, while in flight, still waits for a reply
+	 * from the server.
+	 * <p>
+	 * A command that has received its last reply but still waits for work
+	 * it runs in the background, like a data transfer, returns <code>false</code>
+	 * until <code>handleCompletion</code> completes it. The default
+	 * implementation returns <code>true</code>.
+	 * @return whether the command waits for a reply
+	 */
+	public boolean isAwaitingReply() {
+		return true;
+	}
+	
+	/**
+	 * Executes this command unless its result is known without asking the
+	 * server, because it would change nothing there.
+	 * <p>
+	 * This method is only called while no other command is in flight, so
+	 * the session state of the client matches the server's. The default
+	 * implementation calls <code>execute</code> and returns <code>null</code>.
+	 * @param inter the current client state
+	 * @return the result if the command was not sent, otherwise <code>null</code>
+	 * @throws IOException
+	 */
+	public FTPResult executeOrElide(FTPInterface inter) throws IOException {
+		execute(inter);
+		return null;
+	}
+	
+	/**
+	 * Executes this command as part of a pipeline, where replies are matched
+	 * to commands in the order the commands were written.
+	 * <p>
+	 * The default implementation calls <code>execute</code>.
+	 * @param inter the current client state
+	 * @throws IOException
+	 */
+	public void executePipelined(FTPInterface inter) throws IOException {
+		execute(inter);
+	}
+	
 	/**
 	 * A method that signals the command to quit it's execution.
 	 * <p>
@@ -39,6 +117,21 @@ public abstract class Command {
 	 */
 	public void quitExecution() { }
 	
+	/**
+	 * Aborts this command after it has been written to the server, so that
+	 * it fails early while the control connection stays usable for the
+	 * commands queued after it.
+	 * <p>
+	 * The command must still consume every reply the server sends for it.
+	 * The default implementation returns <code>false</code>.
+	 * @param inter the current client state
+	 * @return whether the command will complete early
+	 * @throws IOException
+	 */
+	public boolean abort(FTPInterface inter) throws IOException {
+		return false;
+	}
+	
 	/**
 	 * Gets whether the provided state is a valid context to execute this command in.
 	 * @param state the current client state
@@ -54,16 +147,34 @@ public abstract class Command {
 	 * @param response the server response
 	 * @return whether the command is completed
 	 */
-	public synchronized final boolean processResponse(FTPInterface inter, FTPResponse response) {
+	public final boolean processResponse(FTPInterface inter, FTPResponse response) {
+		return process(inter, response);
+	}
+	
+	/**
+	 * Completes the command if the work it runs in the background has finished.
+	 * @param inter the current client state
+	 * @return whether the command is completed
+	 */
+	public final boolean processCompletion(FTPInterface inter) {
+		return process(inter, null);
+	}
+	
+	private boolean process(FTPInterface inter, FTPResponse response) {
 		FTPFuture future = inter.getFuture();
 		if (future == null) return false;
 		
-		FTPResult result = handleResponse(inter, response);
-		if (result != null) {
-			if (!future.isResultSet()) future.setResult(result);
-			return true;
+		commandLock.lock();
+		try {
+			FTPResult result = response == null ? handleCompletion(inter) : handleResponse(inter, response);
+			if (result != null) {
+				if (!future.isResultSet()) future.setResult(result);
+				return true;
+			}
+			return false;
+		} finally {
+			commandLock.unlock();
 		}
-		return false;
 	}
 	
 	/**
@@ -78,4 +189,19 @@ public abstract class Command {
 	 * @return a result to the response
 	 */
 	public abstract FTPResult handleResponse(FTPInterface inter, FTPResponse response);
+	
+	/**
+	 * Handles the completion of work this command runs in the background,
+	 * after the work called {@link FTPInterface#signalCompletion()}. This
+	 * method is called on the thread that handles the server's replies.
+	 * <p>
+	 * If this command returns any {@link FTPResult} that is not
+	 * null, it will be interpreted as the command being completed.
+	 * The default implementation returns <code>null</code>.
+	 * @param inter the current client state
+	 * @return a result or <code>null</code>
+	 */
+	public FTPResult handleCompletion(FTPInterface inter) {
+		return null;
+	}
 }
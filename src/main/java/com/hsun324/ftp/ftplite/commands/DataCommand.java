@@ -0,0 +1,343 @@
+package com.hsun324.ftp.ftplite.commands;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.FTPUtilities;
+import com.hsun324.ftp.ftplite.FTPWatchdog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+
+/**
+ * This class represents a command that transfers data over the data
+ * channel.
+ * <p>
+ * The data channel is opened and the data is transferred on a transfer
+ * worker of the client, so the thread that handles the control connection
+ * keeps reading replies while the data moves. The transfer starts once the
+ * server's preliminary reply arrives and is stopped early if the server
+ * answers with an error instead. The command completes once it has both
+ * received its final reply and finished the transfer, in whichever order
+ * they happen. A transfer that finishes last reports back through
+ * {@link FTPInterface#signalCompletion()} and <code>handleCompletion</code>.
+ * @author hsun324
+ * @version 0.7
+ */
+public abstract class DataCommand extends TextCommand {
+	/**
+	 * Transfer state lock.
+	 */
+	private final Lock transferLock = new ReentrantLock();
+	/**
+	 * Transfer state changed condition.
+	 */
+	private final Condition transferChanged = transferLock.newCondition();
+	
+	/**
+	 * The <code>SocketChannel</code> data is transferred over.
+	 */
+	private SocketChannel channel = null;
+	
+	/**
+	 * The worker running the transfer, while it runs.
+	 */
+	private Thread worker = null;
+	
+	/**
+	 * The preliminary reply that starts the transfer.
+	 */
+	private FTPResponse start = null;
+	
+	/**
+	 * The final reply to this command.
+	 */
+	private volatile FTPResponse end = null;
+	
+	/**
+	 * Flag indicating whether a stop has been requested.
+	 */
+	private volatile boolean stopRequested = false;
+	
+	/**
+	 * Flag indicating whether the command was aborted with ABOR.
+	 */
+	private volatile boolean aborted = false;
+	
+	/**
+	 * The number of final replies received since the command was aborted.
+	 */
+	private int abortReplies = 0;
+	
+	/**
+	 * Flag indicating whether the transfer worker has finished.
+	 */
+	private boolean transferDone = false;
+	
+	/**
+	 * Flag indicating whether the data transfer has finished successfully.
+	 */
+	private boolean transferCompleted = false;
+	
+	/**
+	 * Flag indicating whether every reply has been received and the
+	 * command only waits for the transfer to finish.
+	 */
+	private volatile boolean awaitingTransfer = false;
+	
+	/**
+	 * The number of bytes transferred so far. This counter is updated
+	 * as the transfer proceeds.
+	 */
+	protected final AtomicLong transferred = new AtomicLong();
+	
+	/**
+	 * Gets the number of bytes transferred so far.
+	 * <p>
+	 * If the transfer fails, this is the number of bytes that were
+	 * transferred before the failure.
+	 * @return transferred byte count
+	 */
+	public final long getTransferredBytes() {
+		return transferred.get();
+	}
+	
+	/**
+	 * Gets the data channel.
+	 * @return the data channel or <code>null</code> if it is not open
+	 */
+	public final SocketChannel getDataChannel() {
+		transferLock.lock();
+		try {
+			return channel;
+		} finally {
+			transferLock.unlock();
+		}
+	}
+	
+	@Override
+	public void execute(final FTPInterface inter) throws IOException {
+		super.execute(inter);
+		
+		final ModeCommand mode = inter.getModeCommand();
+		final String host = inter.getDataHost();
+		final int port = inter.getDataPort();
+		inter.getTransferExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				runTransfer(inter, mode, host, port);
+			}
+		});
+	}
+	
+	@Override
+	public boolean usesDataChannel() {
+		return true;
+	}
+	
+	@Override
+	public boolean isAwaitingReply() {
+		return !awaitingTransfer;
+	}
+	
+	@Override
+	public void quitExecution() {
+		transferLock.lock();
+		try {
+			stopRequested = true;
+			transferChanged.signalAll();
+			stopTransfer();
+		} finally {
+			transferLock.unlock();
+		}
+	}
+	
+	/**
+	 * Aborts the transfer by sending ABOR and closing the data channel.
+	 * The command then fails once the server has answered both the
+	 * transfer and the ABOR command.
+	 */
+	@Override
+	public boolean abort(FTPInterface inter) throws IOException {
+		transferLock.lock();
+		try {
+			if (end != null) return false;
+			if (aborted) return true;
+			
+			writeAbort(inter);
+			aborted = true;
+			transferChanged.signalAll();
+			stopTransfer();
+			return true;
+		} finally {
+			transferLock.unlock();
+		}
+	}
+	
+	@Override
+	public final FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
+		int code = response.getCode();
+		
+		transferLock.lock();
+		try {
+			if (code >= 100 && code < 200) {
+				if (start == null && !aborted) {
+					start = response;
+					transferChanged.signalAll();
+				}
+				return null;
+			}
+			
+			if (aborted) {
+				// an aborted transfer waits for the replies to both the transfer and ABOR
+				if (++abortReplies < 2) return null;
+			} else {
+				end = response;
+				transferChanged.signalAll();
+				// an error reply stops a transfer that is still running
+				if (code >= 400 && !transferDone) stopTransfer();
+			}
+			return complete(inter);
+		} finally {
+			transferLock.unlock();
+		}
+	}
+	
+	@Override
+	public final FTPResult handleCompletion(FTPInterface inter) {
+		transferLock.lock();
+		try {
+			if (!awaitingTransfer) return null;
+			return complete(inter);
+		} finally {
+			transferLock.unlock();
+		}
+	}
+	
+	/**
+	 * Transfers data over the provided data channel. This method is called
+	 * on a transfer worker once the server's preliminary reply has arrived.
+	 * <p>
+	 * Subclasses of <code>DataCommand</code> should implement this method and
+	 * count the transferred bytes in <code>transferred</code>.
+	 * @param inter the current client state
+	 * @param response the preliminary reply
+	 * @param channel the data channel
+	 * @throws IOException
+	 */
+	protected abstract void transfer(FTPInterface inter, FTPResponse response, SocketChannel channel) throws IOException;
+	
+	/**
+	 * Gets the result of this command once both the final reply has been
+	 * received and the transfer has finished.
+	 * <p>
+	 * Subclasses of <code>DataCommand</code> should implement this method.
+	 * @param inter the current client state
+	 * @param response the final reply
+	 * @param completed whether the transfer finished successfully
+	 * @return the result
+	 */
+	protected abstract FTPResult getTransferResult(FTPInterface inter, FTPResponse response, boolean completed);
+	
+	private void runTransfer(FTPInterface inter, ModeCommand mode, String host, int port) {
+		FTPWatchdog.Watch watch = null;
+		SocketChannel opened = null;
+		boolean completed = false;
+		try {
+			transferLock.lock();
+			try {
+				if (isStopping()) return;
+				worker = Thread.currentThread();
+			} finally {
+				transferLock.unlock();
+			}
+			
+			opened = FTPUtilities.openDataChannel(mode, host, port, inter.getConnectTimeout());
+			
+			FTPResponse response;
+			transferLock.lock();
+			try {
+				channel = opened;
+				while (start == null && end == null && !stopRequested && !aborted) transferChanged.await();
+				if (start == null || isStopping()) return;
+				response = start;
+			} finally {
+				transferLock.unlock();
+			}
+			
+			watch = FTPWatchdog.watch(transferred, opened, inter.getReadTimeout(), inter.getMinimumThroughput(), inter.getThroughputPeriod());
+			transfer(inter, response, opened);
+			completed = true;
+		} catch (IOException e) {
+			if (!isStopping()) FTPLog.log(Level.WARN, "transfer failed", e);
+		} catch (InterruptedException e) {
+			if (!isStopping()) FTPLog.log(Level.WARN, "transfer interrupted", e);
+		} finally {
+			if (watch != null) watch.cancel();
+			try {
+				if (opened != null) opened.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+			
+			transferLock.lock();
+			try {
+				worker = null;
+				Thread.interrupted();
+				transferDone = true;
+				transferCompleted = completed;
+			} finally {
+				transferLock.unlock();
+			}
+			inter.signalCompletion();
+		}
+	}
+	
+	/**
+	 * Gets whether the transfer was told to stop. A transfer also stops
+	 * once the server has answered with an error.
+	 * @return whether the transfer is stopping
+	 */
+	private boolean isStopping() {
+		FTPResponse response = end;
+		return stopRequested || aborted || response != null && response.getCode() >= 400;
+	}
+	
+	/**
+	 * Stops a running transfer by closing its data channel, or by
+	 * interrupting the worker while the channel is still being opened.
+	 * Must be called while holding the transfer lock.
+	 */
+	private void stopTransfer() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// TODO: Exceptions
+			}
+		} else if (worker != null) worker.interrupt();
+	}
+	
+	/**
+	 * Completes this command if every reply has been received and the
+	 * transfer has finished. Must be called while holding the transfer lock.
+	 * @param inter the current client state
+	 * @return the result or <code>null</code> if the transfer has not finished
+	 */
+	private FTPResult complete(FTPInterface inter) {
+		if (!transferDone) {
+			awaitingTransfer = true;
+			return null;
+		}
+		awaitingTransfer = false;
+		
+		if (aborted) return new FTPResult(false, null, transferred.get());
+		return getTransferResult(inter, end, transferCompleted);
+	}
+}
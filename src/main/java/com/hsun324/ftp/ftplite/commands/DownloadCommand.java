@@ -2,7 +2,13 @@ package com.hsun324.ftp.ftplite.commands;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
+import com.hsun324.ftp.ftplite.FTPBufferPool;
 import com.hsun324.ftp.ftplite.FTPResponse;
 import com.hsun324.ftp.ftplite.FTPResult;
 import com.hsun324.ftp.ftplite.FTPUtilities;
@@ -11,19 +17,29 @@ import com.hsun324.ftp.ftplite.client.FTPInterface;
 /**
  * This class represents a command that requires a download from
  * the data channel for proper execution.
+ * <p>
+ * If a sink is provided, downloaded data is streamed to the sink as it
+ * arrives and the result of the command only carries the number of bytes
+ * transferred. File channel sinks are filled directly from the data
+ * channel with <code>FileChannel.transferFrom</code>. If a target buffer is
+ * provided, the data is read straight into it. Otherwise the data is
+ * read through a single buffer leased from {@link FTPBufferPool#DIRECT},
+ * collected in a growing heap array and passed through <code>processData</code>.
  * @author hsun324
  * @version 0.7
  */
-public abstract class DownloadCommand extends TextCommand {
+public abstract class DownloadCommand extends DataCommand {
 	/**
-	 * Download stream semaphore.
+	 * The size of the pooled buffer buffered downloads are read through,
+	 * and the initial size of the array they are collected in.
 	 */
-	private Object downloadSync = new Object();
+	private static final int BUFFERED_CHUNK_SIZE = 1 << 16;
 	
 	/**
-	 * The <code>InputStream</code> for downloading data.
+	 * The largest download that can be buffered, which is the largest
+	 * array most virtual machines allocate.
 	 */
-	private InputStream download = null;
+	private static final int MAXIMUM_BUFFERED_SIZE = Integer.MAX_VALUE - 8;
 	
 	/**
 	 * The data downloaded from the download stream.
@@ -31,60 +47,229 @@ public abstract class DownloadCommand extends TextCommand {
 	private byte[] data = null;
 	
 	/**
-	 * Flag indicating whether a stop has been requested.
+	 * The sink downloaded data is streamed to, or <code>null</code> if
+	 * the data should be buffered.
 	 */
-	private boolean stopRequested = false;
+	private final WritableByteChannel sink;
 	
 	/**
-	 * Gets the download stream.
-	 * @return the download stream
+	 * The caller's buffer downloaded data is read into, or <code>null</code>.
+	 */
+	private final ByteBuffer target;
+	
+	/**
+	 * The maximum number of bytes to download before closing the
+	 * download channel, or <code>-1</code> for no limit.
+	 */
+	private final long limit;
+	
+	/**
+	 * Flag indicating whether the data was streamed to a sink.
+	 */
+	private boolean streamed = false;
+	
+	/**
+	 * Flag indicating whether the target buffer filled up before the data ended.
+	 */
+	private boolean truncated = false;
+	
+	/**
+	 * Creates a <code>DownloadCommand</code> that buffers the downloaded data.
+	 */
+	public DownloadCommand() {
+		this((WritableByteChannel) null);
+	}
+	
+	/**
+	 * Creates a <code>DownloadCommand</code> that streams the downloaded data
+	 * to the provided sink. If the sink is <code>null</code>, the data is buffered.
+	 * @param sink the sink to stream to
+	 */
+	public DownloadCommand(WritableByteChannel sink) {
+		this(sink, -1);
+	}
+	
+	/**
+	 * Creates a <code>DownloadCommand</code> that streams at most <code>limit</code>
+	 * bytes of the downloaded data to the provided sink.
+	 * <p>
+	 * Once the limit is reached the download channel is closed. Servers usually
+	 * answer this with a 426 or 451 reply, which is treated as success as long as
+	 * the full limit was received.
+	 * @param sink the sink to stream to
+	 * @param limit the maximum number of bytes, or <code>-1</code> for no limit
+	 */
+	public DownloadCommand(WritableByteChannel sink, long limit) {
+		this.sink = sink;
+		this.target = null;
+		this.limit = limit;
+	}
+	
+	/**
+	 * Creates a <code>DownloadCommand</code> that reads the downloaded data
+	 * straight into the provided buffer, starting at its position.
+	 * <p>
+	 * At most <code>target.remaining()</code> bytes are downloaded and the
+	 * buffer's position is advanced past them. If the buffer fills up before
+	 * the data ends, the download channel is closed and the command fails,
+	 * so a truncated download is never mistaken for a file that exactly
+	 * fills the buffer. The buffer must not be used until the command completes.
+	 * @param target the buffer to read into
+	 */
+	public DownloadCommand(ByteBuffer target) {
+		if (target == null || target.isReadOnly()) throw new IllegalArgumentException();
+		this.sink = null;
+		this.target = target;
+		this.limit = target.remaining();
+	}
+	
+	/**
+	 * Gets the maximum number of bytes this command downloads.
+	 * @return the limit, or <code>-1</code> for no limit
+	 */
+	public final long getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * Gets the sink downloaded data is streamed to.
+	 * @return the sink or <code>null</code>
+	 */
+	public final WritableByteChannel getSink() {
+		return sink;
+	}
+	
+	/**
+	 * Gets the buffer downloaded data is read into.
+	 * @return the target buffer or <code>null</code>
+	 */
+	public final ByteBuffer getTarget() {
+		return target;
+	}
+	
+	/**
+	 * Gets a stream over the download channel.
+	 * @return the download stream or <code>null</code> if the channel is not open
 	 */
 	public final InputStream getDownload() {
-		return download;
+		SocketChannel channel = getDataChannel();
+		return channel == null ? null : Channels.newInputStream(channel);
 	}
 	
-	public void execute(FTPInterface inter) throws IOException {
-		// TODO: Async
-		super.execute(inter);
-		synchronized (downloadSync) {
-			download = FTPUtilities.openTransferStream(inter.getModeCommand(), inter.getDataHost(), inter.getDataPort());
-			downloadSync.notify();
-		}
+	/**
+	 * Gets the download channel.
+	 * @return the download channel
+	 */
+	public final SocketChannel getDownloadChannel() {
+		return getDataChannel();
 	}
 	
 	@Override
-	public void quitExecution() {
-		synchronized (downloadSync) {
-			stopRequested = true;
-			downloadSync.notifyAll();
+	protected void transfer(FTPInterface inter, FTPResponse response, SocketChannel channel) throws IOException {
+		if (target != null) {
+			streamed = true;
+			int len = 0;
+			while (target.hasRemaining() && (len = channel.read(target)) != -1) transferred.addAndGet(len);
+			if (len != -1) {
+				// the buffer is full, so the data must end here for the download to be whole
+				ByteBuffer probe = ByteBuffer.allocate(1);
+				while ((len = channel.read(probe)) == 0);
+				truncated = len != -1;
+			}
+			return;
+		}
+		
+		WritableByteChannel sink = openSink(inter, response);
+		try {
+			if (sink != null) {
+				streamed = true;
+				FTPUtilities.transfer(channel, sink, limit < 0 ? Long.MAX_VALUE : limit, transferred);
+			} else data = processData(inter, response, readBuffered(channel));
+		} finally {
+			if (sink != null) releaseSink(sink);
 		}
 	}
 	
-	@Override
-	public final FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
-		if (response.getCode() == 150 || response.getCode() == 125) {
-			try {
-				synchronized (downloadSync) {
-					while (download == null && !stopRequested) downloadSync.wait();
-					if (download != null) data = processData(inter, response, FTPUtilities.readAll(download));
-				}
-				return null;
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if (download != null)
-						download.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+	/**
+	 * Reads the whole download through a single buffer leased from the
+	 * buffer pool into a heap array that doubles in size as it fills, so
+	 * the direct memory used does not grow with the size of the download.
+	 * @param channel the download channel
+	 * @return the downloaded data
+	 * @throws IOException
+	 */
+	private byte[] readBuffered(SocketChannel channel) throws IOException {
+		ByteBuffer buffer = FTPBufferPool.DIRECT.lease(BUFFERED_CHUNK_SIZE);
+		try {
+			byte[] data = new byte[BUFFERED_CHUNK_SIZE];
+			int size = 0;
+			int len = 0;
+			while ((len = channel.read(buffer)) != -1) {
+				if (len == 0) continue;
+				transferred.addAndGet(len);
+				
+				if (size + (long) len > data.length) {
+					if (size + (long) len > MAXIMUM_BUFFERED_SIZE) throw new IOException("download too large to buffer");
+					data = Arrays.copyOf(data, (int) Math.min(MAXIMUM_BUFFERED_SIZE, Math.max(data.length * 2L, size + (long) len)));
 				}
+				buffer.flip();
+				buffer.get(data, size, len);
+				buffer.clear();
+				size += len;
 			}
-		} else if (response.getCode() == 226 && data != null) return new FTPResult(true, data);
-		return FTPResult.FAILED;
+			return size == data.length ? data : Arrays.copyOf(data, size);
+		} finally {
+			FTPBufferPool.DIRECT.release(buffer);
+		}
+	}
+	
+	@Override
+	protected FTPResult getTransferResult(FTPInterface inter, FTPResponse response, boolean completed) {
+		if (completed && !truncated && (response.getCode() == 226 || isLimitReached() && isAbortedTransferCode(response.getCode()))) {
+			if (streamed) return new FTPResult(true, null, transferred.get());
+			if (data != null) return new FTPResult(true, data);
+		}
+		return new FTPResult(false, null, transferred.get());
+	}
+	
+	/**
+	 * Gets whether a sink download stopped because its limit was reached,
+	 * which makes the server's reply to the closed channel a success.
+	 * @return whether the limit was reached
+	 */
+	private boolean isLimitReached() {
+		return streamed && target == null && limit >= 0 && transferred.get() == limit;
+	}
+	
+	private static boolean isAbortedTransferCode(int code) {
+		return code == 426 || code == 450 || code == 451;
+	}
+	
+	/**
+	 * Gets the channel that downloaded data should be streamed to.
+	 * <p>
+	 * If this method returns <code>null</code>, the data is buffered and
+	 * passed to <code>processData</code> instead. The default implementation
+	 * returns the sink this command was created with.
+	 * @param inter the current client state
+	 * @param response the server response
+	 * @return the sink channel or <code>null</code>
+	 * @throws IOException
+	 */
+	public WritableByteChannel openSink(FTPInterface inter, FTPResponse response) throws IOException {
+		return sink;
 	}
 	
+	/**
+	 * Releases a channel returned by <code>openSink</code> after the download
+	 * has finished or failed.
+	 * <p>
+	 * The default implementation does nothing.
+	 * @param sink the sink channel
+	 * @throws IOException
+	 */
+	public void releaseSink(WritableByteChannel sink) throws IOException { }
+	
 	/**
 	 * Processes the data downloaded from the download stream.
 	 * <p>
@@ -1,5 +1,10 @@
 package com.hsun324.ftp.ftplite.commands;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import com.hsun324.ftp.ftplite.FTPListingHandler;
+import com.hsun324.ftp.ftplite.FTPListingParser;
 import com.hsun324.ftp.ftplite.FTPObject;
 import com.hsun324.ftp.ftplite.FTPResponse;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
@@ -9,17 +14,29 @@ import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
 /**
  * This {@link Command} handles the list
  * LIST/MLSD command.
+ * <p>
+ * If a {@link FTPListingHandler} is provided, the listing is parsed as it
+ * arrives and its entries are handed to the handler on the transfer worker,
+ * instead of being buffered. The entries are relative to the listed
+ * directory, or to the current directory if none was provided.
  * @author hsun324
  * @version 0.7
  */
 public class DownloadCommandList extends DownloadCommand {
 	private final String directory;
+	private final FTPObject parent;
+	private final FTPListingHandler handler;
 	public DownloadCommandList() {
 		this(null);
 	}
 	public DownloadCommandList(FTPObject directory) {
+		this(directory, null);
+	}
+	public DownloadCommandList(FTPObject directory, FTPListingHandler handler) {
 		// TODO: Current Directory Test
 		this.directory = directory != null ? " " + directory.getPath() : "";
+		this.parent = directory;
+		this.handler = handler;
 	}
 	
 	@Override
@@ -32,6 +49,16 @@ public class DownloadCommandList extends DownloadCommand {
 		return inter.getClientState() == ClientState.READY;
 	}
 	@Override
+	public WritableByteChannel openSink(FTPInterface inter, FTPResponse response) throws IOException {
+		if (handler == null) return null;
+		FTPObject listed = parent == null ? inter.getCurrentDirectory() : new FTPObject(inter.getCurrentDirectory(), parent);
+		return new FTPListingParser(listed, FTPListingParser.getCharset(inter), handler);
+	}
+	@Override
+	public void releaseSink(WritableByteChannel sink) throws IOException {
+		sink.close();
+	}
+	@Override
 	public byte[] processData(FTPInterface inter, FTPResponse response, byte[] data) {
 		return data;
 	}
@@ -1,7 +1,15 @@
 package com.hsun324.ftp.ftplite.commands;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 import com.hsun324.ftp.ftplite.FTPObject;
 import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
 import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
 
@@ -13,10 +21,60 @@ import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
  */
 public class DownloadCommandRetrieveFile extends DownloadCommand {
 	private final String command;
+	private final Path path;
+	private final long offset;
+	
 	public DownloadCommandRetrieveFile(FTPObject file) {
+		this(file, (WritableByteChannel) null);
+	}
+	public DownloadCommandRetrieveFile(FTPObject file, WritableByteChannel sink) {
+		super(sink);
 		// TODO: Current Directory / File Test
 		if (file == null) throw new IllegalArgumentException();
 		this.command = "RETR " + file.getPath();
+		this.path = null;
+		this.offset = -1;
+	}
+	/**
+	 * Creates a <code>DownloadCommandRetrieveFile</code> that reads the file
+	 * straight into the provided buffer.
+	 * @param file the file to retrieve
+	 * @param target the buffer to read into
+	 * @see DownloadCommand#DownloadCommand(ByteBuffer)
+	 */
+	public DownloadCommandRetrieveFile(FTPObject file, ByteBuffer target) {
+		super(target);
+		if (file == null) throw new IllegalArgumentException();
+		this.command = "RETR " + file.getPath();
+		this.path = null;
+		this.offset = -1;
+	}
+	public DownloadCommandRetrieveFile(FTPObject file, Path target) {
+		if (file == null || target == null) throw new IllegalArgumentException();
+		this.command = "RETR " + file.getPath();
+		this.path = target;
+		this.offset = -1;
+	}
+	/**
+	 * Creates a <code>DownloadCommandRetrieveFile</code> that writes <code>length</code>
+	 * bytes into the local file starting at <code>offset</code>, leaving the rest
+	 * of the local file untouched.
+	 * <p>
+	 * This command does not send the REST command itself; it should be
+	 * chained after a {@link TextCommandRestart} with the same offset.
+	 * The offset must not be beyond the end of the local file, and the
+	 * command fails unless exactly <code>length</code> bytes are written.
+	 * @param file the file to retrieve
+	 * @param target the local file to write to
+	 * @param offset the offset to write at
+	 * @param length the number of bytes to retrieve, or <code>-1</code> for the rest of the file
+	 */
+	public DownloadCommandRetrieveFile(FTPObject file, Path target, long offset, long length) {
+		super(null, length);
+		if (file == null || target == null || offset < 0) throw new IllegalArgumentException();
+		this.command = "RETR " + file.getPath();
+		this.path = target;
+		this.offset = offset;
 	}
 	
 	@Override
@@ -27,6 +85,33 @@ public class DownloadCommandRetrieveFile extends DownloadCommand {
 	public boolean isValidContext(FTPInterface inter) {
 		return inter.getClientState() == ClientState.READY;
 	}
+	
+	@Override
+	public WritableByteChannel openSink(FTPInterface inter, FTPResponse response) throws IOException {
+		if (path != null) {
+			if (offset < 0) return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			// transferFrom copies nothing at a position beyond the end of the file
+			if (offset > channel.size()) {
+				channel.close();
+				throw new IOException("offset beyond end of file");
+			}
+			return channel.position(offset);
+		}
+		return super.openSink(inter, response);
+	}
+	@Override
+	public void releaseSink(WritableByteChannel sink) throws IOException {
+		if (path != null) sink.close();
+	}
+
+	@Override
+	protected FTPResult getTransferResult(FTPInterface inter, FTPResponse response, boolean completed) {
+		FTPResult result = super.getTransferResult(inter, response, completed);
+		if (result.isSuccessful() && offset >= 0 && getLimit() >= 0 && result.getTransferredBytes() != getLimit())
+			return new FTPResult(false, null, result.getTransferredBytes());
+		return result;
+	}
 
 	@Override
 	public byte[] processData(FTPInterface inter, FTPResponse response, byte[] data) {
@@ -1,16 +1,101 @@
 package com.hsun324.ftp.ftplite.commands;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+import com.hsun324.ftp.ftplite.FTPBufferPool;
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
 
 public abstract class TextCommand extends Command {
 	@Override
 	public void execute(FTPInterface inter) throws IOException {
-		StringBuilder builder = new StringBuilder(getCommandContent(inter));
-		System.out.println(builder.toString());
-		inter.writeBytes(builder.append("\r\n").toString().getBytes(FTPFiletype.ASCII.getCharset()));
+		String content = getCommandContent(inter);
+		if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "> " + getLoggedContent(content));
+		writeLine(inter, content);
+	}
+	
+	@Override
+	public FTPResult executeOrElide(FTPInterface inter) throws IOException {
+		FTPResult result = getElidedResult(inter);
+		if (result == null) {
+			execute(inter);
+			return null;
+		}
+		
+		String content = getCommandContent(inter);
+		int index = content.indexOf(' ');
+		inter.recordElidedCommand(index < 0 ? content : content.substring(0, index));
+		if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "= " + getLoggedContent(content) + " (elided)");
+		return result;
+	}
+	
+	/**
+	 * Gets the result of this command if sending it would change nothing on
+	 * the server, judging by the session state the client tracks. Such a
+	 * command is not sent and completes at once with this result.
+	 * <p>
+	 * The default implementation returns <code>null</code>.
+	 * @param inter the current client state
+	 * @return the result or <code>null</code> if the command must be sent
+	 */
+	protected FTPResult getElidedResult(FTPInterface inter) {
+		return null;
+	}
+	
+	/**
+	 * Writes an ABOR command preceded by the Telnet Interrupt Process and
+	 * Synch sequences, as RFC 959 asks, so that servers busy with a transfer
+	 * read the command at once.
+	 * <p>
+	 * The server answers the aborted command and the ABOR command with one
+	 * final reply each.
+	 * @param inter the current client state
+	 * @throws IOException
+	 */
+	protected final void writeAbort(FTPInterface inter) throws IOException {
+		if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "> ABOR");
+		inter.writeInterrupt();
+		writeLine(inter, "ABOR");
+	}
+	
+	/**
+	 * Writes a line to the control connection through a buffer leased from
+	 * {@link FTPBufferPool#HEAP}. Characters outside of US-ASCII are written
+	 * as <code>?</code>, like the US-ASCII charset does.
+	 * @param inter the current client state
+	 * @param line the line without its line terminator
+	 * @throws IOException
+	 */
+	protected static void writeLine(FTPInterface inter, String line) throws IOException {
+		int length = line.length() + 2;
+		ByteBuffer buffer = FTPBufferPool.HEAP.lease(length);
+		try {
+			byte[] bytes = buffer.array();
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+			}
+			bytes[length - 2] = '\r';
+			bytes[length - 1] = '\n';
+			inter.writeBytes(bytes, 0, length);
+		} finally {
+			FTPBufferPool.HEAP.release(buffer);
+		}
+	}
+	
+	/**
+	 * Gets the form of the command content that may be written to logs.
+	 * <p>
+	 * The default implementation returns the content unchanged. Commands
+	 * that carry secrets should mask them.
+	 * @param content the command content
+	 * @return the content to log
+	 */
+	protected String getLoggedContent(String content) {
+		return content;
 	}
 	
 	/**
@@ -28,6 +28,10 @@ public class TextCommandDeleteFile extends TextCommand {
 		return inter.getClientState() == ClientState.READY;
 	}
 	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		if (response.getCode() == 250) return FTPResult.SUCCEEDED;
 		return FTPResult.FAILED;
@@ -22,6 +22,7 @@ public class TextCommandDirectory extends TextCommand {
 	
 	private final String command;
 	private final DirectoryAction action;
+	private final FTPObject directory;
 
 	public TextCommandDirectory() {
 		this(DirectoryAction.CURRENT, null);
@@ -40,6 +41,7 @@ public class TextCommandDirectory extends TextCommand {
 		}
 		
 		this.action = action;
+		this.directory = directory;
 	}
 
 	@Override
@@ -50,6 +52,30 @@ public class TextCommandDirectory extends TextCommand {
 	public boolean isValidContext(FTPInterface inter) {
 		return inter.getClientState() == ClientState.READY;
 	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	
+	/**
+	 * A PWD is not sent while the current directory is known, and a CWD is
+	 * not sent if it names the known current directory.
+	 */
+	@Override
+	protected FTPResult getElidedResult(FTPInterface inter) {
+		if (!inter.isCurrentDirectoryKnown()) return null;
+		String current = inter.getCurrentDirectory().getPath();
+		switch (action) {
+		case CURRENT:
+			return new FTPResult(true, current.getBytes(FTPFiletype.ASCII.getCharset()));
+		case CHANGE:
+			if (directory.getPath().startsWith("/") && directory.getPath().equals(current)) return FTPResult.SUCCEEDED;
+			break;
+		default:
+			break;
+		}
+		return null;
+	}
 	
 	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
@@ -57,6 +83,17 @@ public class TextCommandDirectory extends TextCommand {
 			int code = response.getCode();
 			switch (action) {
 			case CHANGE:
+			case UP:
+				if (code == 250 || code == 200) {
+					// the server resolves the new directory, which the next PWD reports
+					inter.invalidateCurrentDirectory();
+					return FTPResult.SUCCEEDED;
+				}
+				break;
+			case MAKE:
+				if (code == 257) return FTPResult.SUCCEEDED;
+				break;
+			case REMOVE:
 				if (code == 250) return FTPResult.SUCCEEDED;
 				break;
 			case CURRENT:
@@ -1,13 +1,19 @@
 package com.hsun324.ftp.ftplite.commands;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import com.hsun324.ftp.ftplite.FTPResponse;
 import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPCapabilityCache;
+import com.hsun324.ftp.ftplite.client.FTPCapabilityCache.Capabilities;
 import com.hsun324.ftp.ftplite.client.FTPInterface;
 import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
 import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
 /**
  * This {@link Command} handles the features
- * FEAT command.
+ * FEAT command. The announced features are stored in the client's
+ * {@link FTPCapabilityCache}.
  * @author hsun324
  * @version 0.7
  */
@@ -20,10 +26,15 @@ public class TextCommandFeatures extends TextCommand {
 	public boolean isValidContext(FTPInterface inter) {
 		return inter.getClientState() == ClientState.READY;
 	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
 	
 	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		if (response.getCode() == 211) {
+			Set<Feature> supported = EnumSet.noneOf(Feature.class);
 			String[] features = response.getContent().split("\n");
 			if (features.length > 2) {
 				int length = features.length - 1;
@@ -37,16 +48,21 @@ public class TextCommandFeatures extends TextCommand {
 						content = feature.substring(index + 1);
 					}
 					
-					if (tag.equals("EPSV")) inter.setFeatureSupported(Feature.EXTENDED_PASSIVE, true);
-					if (tag.equals("MDTM")) inter.setFeatureSupported(Feature.MODIFICATION_TIME, true);
+					if (tag.equals("EPSV")) supported.add(Feature.EXTENDED_PASSIVE);
+					if (tag.equals("MDTM")) supported.add(Feature.MODIFICATION_TIME);
 					if (tag.equals("MLST")) {
-						inter.setFeatureSupported(Feature.METADATA_LIST, true);
+						supported.add(Feature.METADATA_LIST);
 						inter.setMetadataParameters(content.split(";"));
 					}
-					if (tag.equals("SIZE")) inter.setFeatureSupported(Feature.FILE_SIZE, true);
-					if (tag.equals("UTF8")) inter.setFeatureSupported(Feature.UTF8, true);
+					if (tag.equals("REST") && content.contains("STREAM")) supported.add(Feature.RESTART);
+					if (tag.equals("SIZE")) supported.add(Feature.FILE_SIZE);
+					if (tag.equals("UTF8")) supported.add(Feature.UTF8);
 				}
 			}
+			for (Feature feature : supported) inter.setFeatureSupported(feature, true);
+			
+			FTPCapabilityCache cache = inter.getCapabilityCache();
+			if (cache != null) cache.put(inter.getHost(), inter.getPort(), new Capabilities(supported, inter.getMetadataParameters()));
 			
 			return FTPResult.SUCCEEDED;
 		}
@@ -0,0 +1,31 @@
+package com.hsun324.ftp.ftplite.commands;
+
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
+
+/**
+ * This {@link Command} handles the NOOP command.
+ * @author hsun324
+ * @version 0.7
+ */
+public class TextCommandNoop extends TextCommand {
+	@Override
+	public String getCommandContent(FTPInterface inter) {
+		return "NOOP";
+	}
+	@Override
+	public boolean isValidContext(FTPInterface inter) {
+		return inter.getClientState() == ClientState.READY;
+	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	@Override
+	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
+		if (response.getCode() == 200) return FTPResult.SUCCEEDED;
+		return FTPResult.FAILED;
+	}
+}
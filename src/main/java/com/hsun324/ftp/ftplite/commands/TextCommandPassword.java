@@ -22,6 +22,10 @@ public class TextCommandPassword extends TextCommand {
 		return command;
 	}
 	@Override
+	protected String getLoggedContent(String content) {
+		return "PASS ****";
+	}
+	@Override
 	public boolean isValidContext(FTPInterface inter) {
 		return inter.getClientState() == ClientState.REQUESTING_PASSWORD;
 	}
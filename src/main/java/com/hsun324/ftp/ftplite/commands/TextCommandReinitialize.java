@@ -23,7 +23,10 @@ public class TextCommandReinitialize extends TextCommand {
 	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		if (response.getCode() == 220) {
+			// the server resets the session, including its type and directory
 			inter.setClientState(ClientState.REQUESTING_USERNAME);
+			inter.setCurrentFiletype(null);
+			inter.invalidateCurrentDirectory();
 			return FTPResult.SUCCEEDED;
 		}
 		return FTPResult.FAILED;
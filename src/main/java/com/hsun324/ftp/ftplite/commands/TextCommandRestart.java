@@ -0,0 +1,34 @@
+package com.hsun324.ftp.ftplite.commands;
+
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
+
+/**
+ * This {@link Command} handles the transfer
+ * restart REST command.
+ * @author hsun324
+ * @version 0.7
+ */
+public class TextCommandRestart extends TextCommand {
+	private final String command;
+	public TextCommandRestart(long offset) {
+		if (offset < 0) throw new IllegalArgumentException();
+		this.command = "REST " + offset;
+	}
+	
+	@Override
+	public String getCommandContent(FTPInterface inter) {
+		return command;
+	}
+	@Override
+	public boolean isValidContext(FTPInterface inter) {
+		return inter.getClientState() == ClientState.READY;
+	}
+	@Override
+	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
+		if (response.getCode() == 350) return FTPResult.SUCCEEDED;
+		return FTPResult.FAILED;
+	}
+}
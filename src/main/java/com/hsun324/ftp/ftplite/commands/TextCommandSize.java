@@ -0,0 +1,49 @@
+package com.hsun324.ftp.ftplite.commands;
+
+import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
+
+/**
+ * This {@link Command} handles the file
+ * size SIZE command.
+ * <p>
+ * The result data of this command is the decimal
+ * size of the file in ASCII.
+ * @author hsun324
+ * @version 0.7
+ */
+public class TextCommandSize extends TextCommand {
+	private final String command;
+	public TextCommandSize(FTPObject file) {
+		if (file == null) throw new IllegalArgumentException();
+		this.command = "SIZE " + file.getPath();
+	}
+	
+	@Override
+	public String getCommandContent(FTPInterface inter) {
+		return command;
+	}
+	@Override
+	public boolean isValidContext(FTPInterface inter) {
+		return inter.getClientState() == ClientState.READY;
+	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	@Override
+	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
+		if (response.getCode() == 213) {
+			String size = response.getContent().trim();
+			try {
+				Long.parseLong(size);
+				return new FTPResult(true, size.getBytes(FTPFiletype.ASCII.getCharset()));
+			} catch (NumberFormatException e) { }
+		}
+		return FTPResult.FAILED;
+	}
+}
@@ -0,0 +1,137 @@
+package com.hsun324.ftp.ftplite.commands;
+
+import java.io.IOException;
+import java.util.Set;
+
+import com.hsun324.ftp.ftplite.FTPFile.FTPFiletype;
+import com.hsun324.ftp.ftplite.FTPLog;
+import com.hsun324.ftp.ftplite.FTPLog.Level;
+import com.hsun324.ftp.ftplite.FTPObject;
+import com.hsun324.ftp.ftplite.FTPResponse;
+import com.hsun324.ftp.ftplite.FTPResult;
+import com.hsun324.ftp.ftplite.client.FTPInterface;
+import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
+import com.hsun324.ftp.ftplite.client.FTPInterface.Feature;
+
+/**
+ * This {@link Command} retrieves the metadata of one or more files
+ * with MLST, or with SIZE and MDTM if the server does not support MLST.
+ * <p>
+ * The commands for every file are written at once and the replies are
+ * matched to them in order, so a batch of files costs a single round trip.
+ * SIZE should be sent in binary mode.
+ * <p>
+ * The result data of this command is one line per file, in order, in
+ * ASCII. A line starting with <code>+</code> is followed by the facts of
+ * the file in the form of MLST facts, a line of <code>-</code> means that
+ * the file does not exist, and a line of <code>!</code> means that the
+ * server answered with another error.
+ * @author hsun324
+ * @version 0.7
+ */
+public class TextCommandStatus extends TextCommand {
+	private final String[] lines;
+	private final boolean metadata;
+	private final int commandsPerFile;
+	private final FTPResponse[] replies;
+	private int received = 0;
+	
+	/**
+	 * Creates a <code>TextCommandStatus</code> that uses the provided
+	 * features, either {@link Feature#METADATA_LIST} alone or any of
+	 * {@link Feature#FILE_SIZE} and {@link Feature#MODIFICATION_TIME}.
+	 * @param features the features to use
+	 * @param files the files to retrieve the metadata of
+	 */
+	public TextCommandStatus(Set<Feature> features, FTPObject... files) {
+		if (features == null || files == null || files.length == 0) throw new IllegalArgumentException();
+		boolean size = features.contains(Feature.FILE_SIZE);
+		boolean time = features.contains(Feature.MODIFICATION_TIME);
+		
+		this.metadata = features.contains(Feature.METADATA_LIST);
+		this.commandsPerFile = metadata ? 1 : (size ? 1 : 0) + (time ? 1 : 0);
+		if (commandsPerFile == 0) throw new IllegalArgumentException();
+		
+		this.lines = new String[files.length * commandsPerFile];
+		int index = 0;
+		for (FTPObject file : files) {
+			if (file == null) throw new IllegalArgumentException();
+			String path = file.getPath();
+			if (metadata) lines[index++] = "MLST " + path;
+			else {
+				if (size) lines[index++] = "SIZE " + path;
+				if (time) lines[index++] = "MDTM " + path;
+			}
+		}
+		this.replies = new FTPResponse[lines.length];
+	}
+	
+	@Override
+	public void execute(FTPInterface inter) throws IOException {
+		for (String line : lines) {
+			if (FTPLog.isEnabled(Level.DEBUG)) FTPLog.log(Level.DEBUG, "> " + line);
+			writeLine(inter, line);
+		}
+	}
+	
+	@Override
+	public String getCommandContent(FTPInterface inter) {
+		return lines[0];
+	}
+	@Override
+	public boolean isValidContext(FTPInterface inter) {
+		return inter.getClientState() == ClientState.READY;
+	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	@Override
+	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
+		if (response.getCode() < 200) return null;
+		replies[received++] = response;
+		if (received < replies.length) return null;
+		
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < replies.length; i += commandsPerFile) {
+			if (i > 0) builder.append('\n');
+			if (metadata) appendMetadata(builder, replies[i]);
+			else appendSizeAndTime(builder, i);
+		}
+		return new FTPResult(true, builder.toString().getBytes(FTPFiletype.ASCII.getCharset()));
+	}
+	
+	private void appendMetadata(StringBuilder builder, FTPResponse reply) {
+		int code = reply.getCode();
+		if (code == 250) {
+			// the facts are on the only line of the reply that starts with a space
+			String[] content = reply.getContent().split("\n");
+			for (int i = 1; i < content.length; i++) {
+				String line = content[i];
+				if (!line.startsWith(" ")) continue;
+				line = line.substring(1).trim();
+				int index = line.indexOf(' ');
+				builder.append('+').append(index < 0 ? "" : line.substring(0, index));
+				return;
+			}
+			builder.append('+');
+		} else builder.append(code == 550 ? '-' : '!');
+	}
+	
+	private void appendSizeAndTime(StringBuilder builder, int first) {
+		StringBuilder facts = new StringBuilder();
+		boolean missing = true;
+		for (int i = first; i < first + commandsPerFile; i++) {
+			FTPResponse reply = replies[i];
+			if (reply.getCode() == 213) {
+				String value = reply.getContent().trim();
+				if (lines[i].startsWith("SIZE")) facts.append("type=file;size=").append(value).append(';');
+				else facts.append("modify=").append(value).append(';');
+			}
+			if (reply.getCode() != 550) missing = false;
+		}
+		
+		if (facts.length() > 0) builder.append('+').append(facts);
+		else builder.append(missing ? '-' : '!');
+	}
+}
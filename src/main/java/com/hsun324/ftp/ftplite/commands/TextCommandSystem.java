@@ -21,6 +21,10 @@ public class TextCommandSystem extends TextCommand {
 		return inter.getClientState() == ClientState.READY;
 	}
 	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		if (response.getCode() == 215) {
 			return FTPResult.SUCCEEDED;
@@ -8,7 +8,8 @@ import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
 
 /**
  * This {@link Command} handles the transfer
- * type TYPE command.
+ * type TYPE command. The command is not sent if the
+ * server already uses the requested type.
  * @author hsun324
  * @version 0.7
  */
@@ -34,11 +35,25 @@ public class TextCommandType extends TextCommand {
 	public boolean isValidContext(FTPInterface inter) {
 		return inter.getClientState() == ClientState.READY;
 	}
+	@Override
+	public boolean isPipelinable() {
+		return true;
+	}
+	
+	@Override
+	protected FTPResult getElidedResult(FTPInterface inter) {
+		if (inter.getCurrentFiletype() == getFiletype()) return FTPResult.SUCCEEDED;
+		return null;
+	}
 	
 	@Override
 	public FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
 		if (response.getCode() != 200) return FTPResult.FAILED;
-		inter.setCurrentFiletype(type == 'I' ? FTPFiletype.BINARY : FTPFiletype.ASCII);
+		inter.setCurrentFiletype(getFiletype());
 		return FTPResult.SUCCEEDED;
 	}
+	
+	private FTPFiletype getFiletype() {
+		return type == 'I' ? FTPFiletype.BINARY : FTPFiletype.ASCII;
+	}
 }
@@ -2,6 +2,10 @@ package com.hsun324.ftp.ftplite.commands;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 import com.hsun324.ftp.ftplite.FTPResponse;
 import com.hsun324.ftp.ftplite.FTPResult;
@@ -12,72 +16,81 @@ import com.hsun324.ftp.ftplite.client.FTPInterface;
 /**
  * This class represents a command that requires a upload to
  * the data channel for proper execution.
+ * <p>
+ * Data is either taken whole from <code>getData</code> or, if
+ * <code>getSource</code> provides a channel, pulled from that
+ * channel in bounded chunks. File channel sources are sent directly
+ * to the data channel with <code>FileChannel.transferTo</code>.
  * @author hsun324
  * @version 0.7
  */
-public abstract class UploadCommand extends TextCommand {
+public abstract class UploadCommand extends DataCommand {
 	/**
-	 * Upload stream semaphore.
+	 * The maximum number of bytes read from the source channel, or
+	 * <code>-1</code> for no limit.
 	 */
-	private Object uploadSync = new Object();
+	private final long limit;
 	
 	/**
-	 * The <code>OutputStream</code> for downloading data.
+	 * Creates a <code>UploadCommand</code> that uploads all of its data.
 	 */
-	private OutputStream upload = null;
+	public UploadCommand() {
+		this(-1);
+	}
 	
 	/**
-	 * Flag indicating whether a stop has been requested.
+	 * Creates a <code>UploadCommand</code> that uploads at most <code>limit</code>
+	 * bytes from its source channel.
+	 * @param limit the maximum number of bytes, or <code>-1</code> for no limit
 	 */
-	private boolean stopRequested = false;
-
+	public UploadCommand(long limit) {
+		this.limit = limit;
+	}
+	
+	/**
+	 * Gets the maximum number of bytes this command uploads from its source.
+	 * @return the limit, or <code>-1</code> for no limit
+	 */
+	public final long getLimit() {
+		return limit;
+	}
+	
 	/**
-	 * Gets the upload stream.
-	 * @return the upload stream
+	 * Gets a stream over the upload channel.
+	 * @return the upload stream or <code>null</code> if the channel is not open
 	 */
 	public final OutputStream getUpload() {
-		return upload;
+		SocketChannel channel = getDataChannel();
+		return channel == null ? null : Channels.newOutputStream(channel);
 	}
-	public void execute(FTPInterface inter) throws IOException {
-		// TODO: Async
-		synchronized (uploadSync) {
-			upload = FTPUtilities.openPushStream(inter.getModeCommand(), inter.getDataHost(), inter.getDataPort());
-			uploadSync.notify();
-		}
+	
+	/**
+	 * Gets the upload channel.
+	 * @return the upload channel
+	 */
+	public final SocketChannel getUploadChannel() {
+		return getDataChannel();
 	}
 	
 	@Override
-	public void quitExecution() {
-		synchronized (uploadSync) {
-			stopRequested = true;
-			uploadSync.notifyAll();
+	protected void transfer(FTPInterface inter, FTPResponse response, SocketChannel channel) throws IOException {
+		ReadableByteChannel source = getSource(inter, response);
+		try {
+			if (source != null) FTPUtilities.transfer(source, channel, limit < 0 ? Long.MAX_VALUE : limit, transferred);
+			else {
+				ByteBuffer data = ByteBuffer.wrap(getData(inter, response));
+				while (data.hasRemaining()) transferred.addAndGet(channel.write(data));
+			}
+		} finally {
+			if (source != null) releaseSource(source);
 		}
 	}
 	
 	@Override
-	public final FTPResult handleResponse(FTPInterface inter, FTPResponse response) {
-		if (response.getCode() == 150 || response.getCode() == 125) {
-			try {
-				synchronized (uploadSync) {
-					while (upload == null && !stopRequested) uploadSync.wait();
-					upload.write(getData(inter, response));
-					upload.flush();
-				}
-				return null;
-			} catch (IOException e) {
-				e.printStackTrace();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if (upload != null)
-						upload.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		} else if (response.getCode() == 226) return FTPResult.SUCCEEDED;
-		return FTPResult.FAILED;
+	protected FTPResult getTransferResult(FTPInterface inter, FTPResponse response, boolean completed) {
+		// a 226 after a failed upload is not trusted
+		if (completed && response.getCode() == 226) return new FTPResult(true, null, transferred.get());
+		return new FTPResult(false, null, transferred.get());
 	}
 	
 	/**
@@ -89,4 +102,29 @@ public abstract class UploadCommand extends TextCommand {
 	 * @return the data to send
 	 */
 	public abstract byte[] getData(FTPInterface inter, FTPResponse response);
+	
+	/**
+	 * Gets a channel that the data to be uploaded should be read from.
+	 * <p>
+	 * If this method returns <code>null</code>, the data returned by
+	 * <code>getData</code> is uploaded instead. The default implementation
+	 * returns <code>null</code>.
+	 * @param inter the current client state
+	 * @param response the server response
+	 * @return the source channel or <code>null</code>
+	 * @throws IOException
+	 */
+	public ReadableByteChannel getSource(FTPInterface inter, FTPResponse response) throws IOException {
+		return null;
+	}
+	
+	/**
+	 * Releases a channel returned by <code>getSource</code> after the upload
+	 * has finished or failed.
+	 * <p>
+	 * The default implementation does nothing.
+	 * @param source the source channel
+	 * @throws IOException
+	 */
+	public void releaseSource(ReadableByteChannel source) throws IOException { }
 }
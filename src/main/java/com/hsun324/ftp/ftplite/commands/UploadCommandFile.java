@@ -1,5 +1,13 @@
 package com.hsun324.ftp.ftplite.commands;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 import com.hsun324.ftp.ftplite.FTPFile;
 import com.hsun324.ftp.ftplite.FTPObject;
 import com.hsun324.ftp.ftplite.FTPResponse;
@@ -9,25 +17,67 @@ import com.hsun324.ftp.ftplite.client.FTPInterface.ClientState;
 /**
  * This {@link Command} handles file data
  * commands like STOR and APPE.
+ * <p>
+ * The uploaded data can be a fully materialized {@link FTPFile}
+ * or be pulled from a stream, channel or local file in bounded chunks.
  * @author hsun324
  * @version 0.7
  */
 public class UploadCommandFile extends UploadCommand {
 	private final String command;
 	private byte[] data = null;
+	private ReadableByteChannel source = null;
+	private Path path = null;
+	private long offset = 0;
 
 	public UploadCommandFile(FileAction action, FTPObject file) {
-		this(action, file, null);
+		this(action, file, (FTPFile) null);
 	}
 	public UploadCommandFile(FileAction action, FTPObject file, FTPFile data) {
 		// TODO: Current Directory / Directory Test
 		if (file == null || data == null) throw new IllegalArgumentException();
+		this.command = getCommand(action, file);
+		this.data = data.getBytes();
+	}
+	public UploadCommandFile(FileAction action, FTPObject file, ReadableByteChannel source) {
+		if (file == null || source == null) throw new IllegalArgumentException();
+		this.command = getCommand(action, file);
+		this.source = source;
+	}
+	public UploadCommandFile(FileAction action, FTPObject file, InputStream source) {
+		this(action, file, source != null ? Channels.newChannel(source) : null);
+	}
+	public UploadCommandFile(FileAction action, FTPObject file, Path source) {
+		if (file == null || source == null) throw new IllegalArgumentException();
+		this.command = getCommand(action, file);
+		this.path = source;
+	}
+	/**
+	 * Creates a <code>UploadCommandFile</code> that uploads <code>length</code>
+	 * bytes of the local file starting at <code>offset</code>.
+	 * <p>
+	 * This command does not send the REST command itself; it should be
+	 * chained after a {@link TextCommandRestart} with the same offset.
+	 * @param action the file action
+	 * @param file the file to write to
+	 * @param source the local file to upload
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or <code>-1</code> for the rest of the file
+	 */
+	public UploadCommandFile(FileAction action, FTPObject file, Path source, long offset, long length) {
+		super(length);
+		if (file == null || source == null || offset < 0) throw new IllegalArgumentException();
+		this.command = getCommand(action, file);
+		this.path = source;
+		this.offset = offset;
+	}
+	
+	private static String getCommand(FileAction action, FTPObject file) {
 		switch (action) {
-		case WRITE: this.command = "STOR " + file.getPath(); break;
-		case APPEND: this.command = "APPE " + file.getPath(); break;
+		case WRITE: return "STOR " + file.getPath();
+		case APPEND: return "APPE " + file.getPath();
 		default: throw new IllegalArgumentException();
 		}
-		this.data = data.getBytes();
 	}
 	
 	@Override
@@ -43,6 +93,16 @@ public class UploadCommandFile extends UploadCommand {
 		return data;
 	}
 	
+	@Override
+	public ReadableByteChannel getSource(FTPInterface inter, FTPResponse response) throws IOException {
+		if (path != null) return FileChannel.open(path, StandardOpenOption.READ).position(offset);
+		return source;
+	}
+	@Override
+	public void releaseSource(ReadableByteChannel source) throws IOException {
+		if (path != null) source.close();
+	}
+	
 	public static enum FileAction {
 		WRITE,
 		APPEND;
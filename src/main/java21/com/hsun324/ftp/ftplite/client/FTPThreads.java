@@ -0,0 +1,37 @@
+package com.hsun324.ftp.ftplite.client;
+
+import com.hsun324.ftp.ftplite.client.SocketFTPClient.ExecutionMode;
+
+/**
+ * A class that creates the threads that run client loops.
+ * <p>
+ * This implementation is selected from the multi-release jar on Java 21
+ * and later. Threads for {@link ExecutionMode#VIRTUAL} clients are virtual
+ * threads, which are always daemon threads.
+ * @author hsun324
+ * @version 0.7
+ */
+final class FTPThreads {
+	private FTPThreads() { }
+	
+	/**
+	 * Gets whether this runtime can create virtual threads.
+	 * @return whether virtual threads are supported
+	 */
+	static boolean isVirtualSupported() {
+		return true;
+	}
+	
+	/**
+	 * Creates an unstarted thread.
+	 * @param mode the requested execution mode
+	 * @param name the name of the thread
+	 * @param daemon whether a platform thread should be a daemon thread
+	 * @param runnable the code to run
+	 * @return the thread
+	 */
+	static Thread newThread(ExecutionMode mode, String name, boolean daemon, Runnable runnable) {
+		if (mode == ExecutionMode.VIRTUAL) return Thread.ofVirtual().name(name).unstarted(runnable);
+		return Thread.ofPlatform().name(name).daemon(daemon).unstarted(runnable);
+	}
+}